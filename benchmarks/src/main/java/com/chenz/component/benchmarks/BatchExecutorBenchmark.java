@@ -0,0 +1,102 @@
+package com.chenz.component.benchmarks;
+
+import com.chenz.component.threadpool.BatchQueue;
+import com.chenz.component.threadpool.CallerRunsBatchExecutor;
+import com.chenz.component.threadpool.CallerRunsBatchExecutor.BatchExecutorAddException;
+import com.chenz.component.threadpool.CallerRunsBatchExecutor.BatchItem;
+import com.chenz.component.threadpool.CallerRunsBatchExecutor.OverflowPolicy;
+import com.chenz.component.threadpool.LinkedBatchQueue;
+import com.chenz.component.threadpool.MpscRingBatchQueue;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CallerRunsBatchExecutor：生产者吞吐量（add不等结果）和端到端耗时（add后等待结果），1~64个线程
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class BatchExecutorBenchmark {
+
+    @Param({"ring", "linked"})
+    public String queueType;
+
+    @Param({"64"})
+    public int maxQty;
+
+    private CallerRunsBatchExecutor<Integer, Integer> executor;
+
+    @Setup
+    public void setup() {
+        BatchQueue<BatchItem<Integer, Integer>> queue = "ring".equals(queueType)
+                ? new MpscRingBatchQueue<>(8192) : new LinkedBatchQueue<>(8192);
+        executor = new CallerRunsBatchExecutor<>(items -> items, queue);
+        executor.setMaxQty(maxQty);
+        executor.setPeriod(1);
+        executor.setOverflowPolicy(OverflowPolicy.CALLER_RUNS);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Threads(1)
+    public CompletableFuture<Integer> add_t1() throws BatchExecutorAddException {
+        return executor.add(1);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Threads(4)
+    public CompletableFuture<Integer> add_t4() throws BatchExecutorAddException {
+        return executor.add(1);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Threads(16)
+    public CompletableFuture<Integer> add_t16() throws BatchExecutorAddException {
+        return executor.add(1);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Threads(64)
+    public CompletableFuture<Integer> add_t64() throws BatchExecutorAddException {
+        return executor.add(1);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Threads(1)
+    public Integer endToEnd_t1() throws BatchExecutorAddException {
+        return executor.add(1).join();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Threads(16)
+    public Integer endToEnd_t16() throws BatchExecutorAddException {
+        return executor.add(1).join();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Threads(64)
+    public Integer endToEnd_t64() throws BatchExecutorAddException {
+        return executor.add(1).join();
+    }
+}
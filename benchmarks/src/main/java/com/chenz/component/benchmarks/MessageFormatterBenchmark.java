@@ -0,0 +1,79 @@
+package com.chenz.component.benchmarks;
+
+import com.chenz.component.format.MessageFormatter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MessageFormatter.format的ns/op，分配速率需要加 -prof gc，或直接运行main
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MessageFormatterBenchmark {
+
+    private static final String NO_ARG = "request finished";
+
+    private static final String ONE_ARG = "user {} login";
+
+    private static final String THREE_ARGS = "order {} of user {} paid, amount: {}";
+
+    private static final String ESCAPED = "json \\{} of user {}";
+
+    public String userId = "u-10086";
+
+    public long orderId = 20230901123456L;
+
+    public int amount = 1999;
+
+    public int[] ids = {1, 2, 3, 4, 5};
+
+    public RuntimeException exception = new RuntimeException("boom");
+
+    @Benchmark
+    public String noArg() {
+        return MessageFormatter.format(NO_ARG).getMessage();
+    }
+
+    @Benchmark
+    public String oneString() {
+        return MessageFormatter.format(ONE_ARG, userId).getMessage();
+    }
+
+    @Benchmark
+    public String threeMixed() {
+        return MessageFormatter.format(THREE_ARGS, orderId, userId, amount).getMessage();
+    }
+
+    @Benchmark
+    public String escaped() {
+        return MessageFormatter.format(ESCAPED, userId).getMessage();
+    }
+
+    @Benchmark
+    public String primitiveArray() {
+        return MessageFormatter.format(ONE_ARG, ids).getMessage();
+    }
+
+    @Benchmark
+    public String withThrowable() {
+        return MessageFormatter.format(ONE_ARG, userId, exception).getMessage();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(MessageFormatterBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
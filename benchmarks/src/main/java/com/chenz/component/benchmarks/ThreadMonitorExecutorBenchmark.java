@@ -0,0 +1,67 @@
+package com.chenz.component.benchmarks;
+
+import com.chenz.component.threadpool.ThreadMonitorExecutor;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ThreadMonitorExecutor相对普通ThreadPoolExecutor的单任务开销
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(ThreadMonitorExecutorBenchmark.TASKS)
+public class ThreadMonitorExecutorBenchmark {
+
+    static final int TASKS = 1000;
+
+    private ThreadPoolExecutor plain;
+
+    private ThreadMonitorExecutor monitored;
+
+    @Setup
+    public void setup() {
+        plain = new ThreadPoolExecutor(4, 4, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(TASKS * 2));
+        monitored = new ThreadMonitorExecutor(4, 4, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(TASKS * 2));
+        monitored.setWaitTimeout(500);
+        monitored.setRunTimeout(500);
+        //只测量监控本身，不测量输出
+        monitored.setLogger(new ThreadMonitorExecutor.ThreadPoolLogger() {
+            @Override
+            public void log(ThreadMonitorExecutor.ExecutorSnapshot executorSnapshot) {
+            }
+        });
+    }
+
+    @TearDown
+    public void tearDown() {
+        plain.shutdown();
+        monitored.shutdown();
+    }
+
+    @Benchmark
+    public void plainThreadPoolExecutor() throws InterruptedException {
+        run(plain);
+    }
+
+    @Benchmark
+    public void threadMonitorExecutor() throws InterruptedException {
+        run(monitored);
+    }
+
+    private static void run(ThreadPoolExecutor executor) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(TASKS);
+        Runnable task = latch::countDown;
+        for (int i = 0; i < TASKS; i++) {
+            executor.execute(task);
+        }
+        latch.await();
+    }
+}
@@ -0,0 +1,490 @@
+package com.chenz.component.format;
+
+import com.chenz.component.threadpool.MpscRingBatchQueue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+
+/**
+ * 异步的文件日志
+ * 业务线程只把模板和参数放入有界的无锁队列（数组、StringBuilder参数先转成字符串，见MessageFormatter.lazyFormat），
+ * 由一个后台线程格式化、按UTF-8编码到缓冲区，缓冲区满或超过flushInterval时通过FileChannel一次写出，
+ * 文件超过maxFileSize时滚动为 file.1、file.2 ...
+ *
+ * 每行格式：yyyy-MM-dd HH:mm:ss.SSS [线程名] 消息，最后一个参数是Throwable时在下面输出异常栈
+ * 队列满时按OverflowPolicy处理；close时写完队列中剩余的日志
+ */
+public class AsyncFileAppender implements Closeable {
+
+    private static final int DEFAULT_CAPACITY = 8192;
+
+    private static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * 每次最多从队列取出的数量
+     */
+    private static final int MAX_BATCH = 256;
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * BLOCK策略下队列满时每次等待的时间
+     */
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    /**
+     * 滚动失败后多久再尝试
+     */
+    private static final long ROLL_RETRY_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final Path file;
+
+    private final MpscRingBatchQueue<Event> queue;
+
+    private final OverflowPolicy overflowPolicy;
+
+    /**
+     * 正在append的线程数，关闭时等它们放入队列后再退出
+     */
+    private final AtomicInteger appending = new AtomicInteger();
+
+    private final AtomicLong dropCounter = new AtomicLong();
+
+    private final AtomicLong writtenCounter = new AtomicLong();
+
+    private final AtomicLong errorCounter = new AtomicLong();
+
+    /**
+     * 以下只有后台线程读写
+     */
+    private final List<Event> batch = new ArrayList<>(MAX_BATCH);
+
+    private final StringBuilder line = new StringBuilder(512);
+
+    private final ByteBuffer buffer;
+
+    private final SimpleDateFormat secondFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+    private final Date date = new Date();
+
+    private long cachedSecond = Long.MIN_VALUE;
+
+    private String cachedSecondText;
+
+    private FileChannel channel;
+
+    private long fileSize;
+
+    private boolean rollFailed;
+
+    private long rollFailedNanos;
+
+    /**
+     * 缓冲区中第一条还没写出的日志的时间
+     */
+    private long pendingSinceNanos;
+
+    /**
+     * 上次在文件中提示丢弃时的丢弃数量
+     */
+    private long reportedDropQty;
+
+    private final Thread consumer;
+
+    private volatile boolean closed;
+
+    /**
+     * 缓冲区中的日志最多等待多久写出，单位（毫秒）
+     */
+    private volatile long flushInterval = 200L;
+
+    /**
+     * 文件超过这个大小时滚动，0表示不滚动，单位（字节）
+     */
+    private volatile long maxFileSize = 0L;
+
+    /**
+     * 滚动时保留的历史文件数量
+     */
+    private volatile int maxBackups = 5;
+
+    private BiConsumer<String, Throwable> reporter;
+
+    public AsyncFileAppender(Path file) {
+        this(file, DEFAULT_CAPACITY, DEFAULT_BUFFER_SIZE, OverflowPolicy.DROP);
+    }
+
+    /**
+     * @param capacity       队列容量，向上取整为2的幂
+     * @param bufferSize     写缓冲区大小，写满时立即写出，单位（字节）
+     * @param overflowPolicy 队列满时的处理方式
+     */
+    public AsyncFileAppender(Path file, int capacity, int bufferSize, OverflowPolicy overflowPolicy) {
+        this.file = Objects.requireNonNull(file, "file");
+        this.overflowPolicy = Objects.requireNonNull(overflowPolicy, "overflowPolicy");
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize: " + bufferSize);
+        }
+        this.queue = new MpscRingBatchQueue<>(capacity);
+        this.buffer = ByteBuffer.allocate(bufferSize);
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            open();
+        } catch (IOException e) {
+            throw new UncheckedIOException("open log file failed: " + file, e);
+        }
+        this.consumer = new Thread(this::consume, "async-file-appender");
+        this.consumer.setDaemon(true);
+        this.consumer.start();
+    }
+
+    /**
+     * 队列满时的处理方式
+     */
+    public enum OverflowPolicy {
+        /**
+         * 丢弃并计数，之后在文件中输出一行丢弃数量，业务线程不等待
+         */
+        DROP,
+        /**
+         * 等待队列有空位，业务线程的耗时受磁盘速度影响，只用于不能丢日志的场景
+         */
+        BLOCK
+    }
+
+    private static final class Event {
+        private final long timeMillis;
+
+        private final String threadName;
+
+        private final FormattingTuple tuple;
+
+        Event(long timeMillis, String threadName, FormattingTuple tuple) {
+            this.timeMillis = timeMillis;
+            this.threadName = threadName;
+            this.tuple = tuple;
+        }
+    }
+
+    /**
+     * 格式化在后台线程进行，参数的toString在写出时才调用
+     *
+     * @return 是否放入队列，队列满（DROP策略，或在后台线程中调用）或已关闭时返回false
+     */
+    public boolean append(String messagePattern, Object... argArray) {
+        appending.incrementAndGet();
+        try {
+            if (closed) {
+                dropCounter.incrementAndGet();
+                return false;
+            }
+            Event event = new Event(System.currentTimeMillis(), Thread.currentThread().getName(),
+                    MessageFormatter.lazyFormat(messagePattern, argArray));
+            while (!queue.offer(event)) {
+                //后台线程自己（格式化时参数toString失败，经report回到这里）不能等待，只有它在取队列
+                if (overflowPolicy == OverflowPolicy.DROP || closed || Thread.currentThread() == consumer) {
+                    dropCounter.incrementAndGet();
+                    return false;
+                }
+                LockSupport.unpark(consumer);
+                LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+            }
+            return true;
+        } finally {
+            appending.decrementAndGet();
+        }
+    }
+
+    /**
+     * MessageFormatter.report改为写入这个文件，close时恢复
+     */
+    public synchronized void installAsReporter() {
+        reporter = (msg, t) -> append("{}", msg, t);
+        MessageFormatter.setReporter(reporter);
+    }
+
+    private void consume() {
+        while (!closed) {
+            int count = drain();
+            if (buffer.position() > 0
+                    && System.nanoTime() - pendingSinceNanos >= TimeUnit.MILLISECONDS.toNanos(flushInterval)) {
+                write();
+            }
+            if (count == 0) {
+                LockSupport.parkNanos(this, Math.min(IDLE_PARK_NANOS, TimeUnit.MILLISECONDS.toNanos(flushInterval)));
+            }
+        }
+        //关闭时写完队列中剩余的，包括关闭前已经开始append的
+        while (drain() > 0 || appending.get() > 0) {
+            Thread.yield();
+        }
+        write();
+        try {
+            channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            error("close log file failed: " + file, e);
+        }
+    }
+
+    /**
+     * @return 本次处理的数量
+     */
+    private int drain() {
+        int count = queue.drainTo(batch, MAX_BATCH);
+        for (int i = 0; i < count; i++) {
+            Event event = batch.get(i);
+            line.setLength(0);
+            render(event);
+            encode();
+        }
+        batch.clear();
+        long dropQty = dropCounter.get();
+        if (dropQty != reportedDropQty) {
+            line.setLength(0);
+            appendTime(System.currentTimeMillis());
+            line.append(" [").append(consumer.getName()).append("] ")
+                    .append(dropQty - reportedDropQty).append(" messages dropped, queue full or closed")
+                    .append(LINE_SEPARATOR);
+            reportedDropQty = dropQty;
+            encode();
+        }
+        writtenCounter.addAndGet(count);
+        return count;
+    }
+
+    private void render(Event event) {
+        appendTime(event.timeMillis);
+        line.append(" [").append(event.threadName).append("] ");
+        event.tuple.appendTo(line);
+        line.append(LINE_SEPARATOR);
+        Throwable t = event.tuple.getThrowable();
+        if (t != null) {
+            StringWriter stackTrace = new StringWriter();
+            t.printStackTrace(new PrintWriter(stackTrace));
+            line.append(stackTrace.getBuffer());
+        }
+    }
+
+    /**
+     * 秒以上的部分每秒格式化一次
+     */
+    private void appendTime(long timeMillis) {
+        long second = Math.floorDiv(timeMillis, 1000L);
+        if (second != cachedSecond) {
+            date.setTime(second * 1000L);
+            cachedSecondText = secondFormat.format(date);
+            cachedSecond = second;
+        }
+        int millis = (int) Math.floorMod(timeMillis, 1000L);
+        line.append(cachedSecondText).append('.');
+        if (millis < 100) {
+            line.append('0');
+        }
+        if (millis < 10) {
+            line.append('0');
+        }
+        line.append(millis);
+    }
+
+    /**
+     * line按UTF-8编码到缓冲区，空间不够时先写出
+     */
+    private void encode() {
+        int len = line.length();
+        int size = FormatBuffer.utf8Length(line, len);
+        if (size > buffer.remaining()) {
+            write();
+        }
+        if (size > buffer.capacity()) {
+            //超过缓冲区的单条日志单独写出
+            byte[] bytes = new byte[size];
+            FormatBuffer.encode(line, len, bytes, 0);
+            writeFully(ByteBuffer.wrap(bytes));
+            return;
+        }
+        if (buffer.position() == 0) {
+            pendingSinceNanos = System.nanoTime();
+        }
+        FormatBuffer.encode(line, len, buffer.array(), buffer.arrayOffset() + buffer.position());
+        buffer.position(buffer.position() + size);
+    }
+
+    private void write() {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer src) {
+        try {
+            if (!channel.isOpen()) {
+                //上次滚动后打开文件失败
+                open();
+            }
+            long maxFileSize = this.maxFileSize;
+            if (maxFileSize > 0 && fileSize > 0 && fileSize + src.remaining() > maxFileSize
+                    && (!rollFailed || System.nanoTime() - rollFailedNanos >= ROLL_RETRY_NANOS)) {
+                roll();
+            }
+            while (src.hasRemaining()) {
+                fileSize += channel.write(src);
+            }
+        } catch (IOException e) {
+            //写失败的这一批丢弃，不能通过MessageFormatter.report，可能又回到这里
+            errorCounter.incrementAndGet();
+            error("write log file failed: " + file, e);
+        }
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        fileSize = channel.size();
+    }
+
+    /**
+     * file -> file.1 -> file.2 ... 超过maxBackups的删除
+     * 重命名失败时继续写当前文件，ROLL_RETRY_NANOS后再尝试滚动
+     */
+    private void roll() throws IOException {
+        channel.close();
+        try {
+            int maxBackups = this.maxBackups;
+            if (maxBackups > 0) {
+                Files.deleteIfExists(backup(maxBackups));
+                for (int i = maxBackups - 1; i >= 1; i--) {
+                    Path src = backup(i);
+                    if (Files.exists(src)) {
+                        Files.move(src, backup(i + 1), StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+                Files.move(file, backup(1), StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.deleteIfExists(file);
+            }
+            rollFailed = false;
+        } catch (IOException e) {
+            errorCounter.incrementAndGet();
+            error("roll log file failed, keep writing to " + file, e);
+            rollFailed = true;
+            rollFailedNanos = System.nanoTime();
+        } finally {
+            open();
+        }
+    }
+
+    private Path backup(int index) {
+        return file.resolveSibling(file.getFileName() + "." + index);
+    }
+
+    private static void error(String msg, Throwable t) {
+        System.err.println(msg);
+        t.printStackTrace();
+    }
+
+    /**
+     * @param flushInterval 缓冲区中的日志最多等待多久写出，单位（毫秒）
+     */
+    public void setFlushInterval(long flushInterval) {
+        if (flushInterval <= 0) {
+            throw new IllegalArgumentException("flushInterval: " + flushInterval);
+        }
+        this.flushInterval = flushInterval;
+    }
+
+    /**
+     * @param maxFileSize 文件超过这个大小时滚动，0表示不滚动，单位（字节）
+     */
+    public void setMaxFileSize(long maxFileSize) {
+        this.maxFileSize = maxFileSize;
+    }
+
+    /**
+     * @param maxBackups 滚动时保留的历史文件数量，0表示直接删除
+     */
+    public void setMaxBackups(int maxBackups) {
+        if (maxBackups < 0) {
+            throw new IllegalArgumentException("maxBackups: " + maxBackups);
+        }
+        this.maxBackups = maxBackups;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return 队列满或已关闭被丢弃的数量
+     */
+    public long getDropQty() {
+        return dropCounter.get();
+    }
+
+    /**
+     * @return 已经格式化的数量（写出失败的也包括在内）
+     */
+    public long getWrittenQty() {
+        return writtenCounter.get();
+    }
+
+    /**
+     * @return 写文件失败的次数
+     */
+    public long getErrorQty() {
+        return errorCounter.get();
+    }
+
+    /**
+     * @return 队列中等待格式化的数量
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * 不再接收新的日志，写完队列中剩余的日志后关闭文件
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (reporter != null && MessageFormatter.getReporter() == reporter) {
+                MessageFormatter.setReporter(null);
+            }
+            reporter = null;
+        }
+        closed = true;
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
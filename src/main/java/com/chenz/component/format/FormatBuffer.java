@@ -0,0 +1,162 @@
+package com.chenz.component.format;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * 线程本地的格式化缓冲区，重复使用StringBuilder和char[]，格式化和编码不产生临时对象
+ * 参数的toString中再次格式化时缓冲区正在使用，这时临时创建一个新的
+ */
+final class FormatBuffer {
+    private static final int INITIAL_CAPACITY = 256;
+
+    /**
+     * 超过这个大小的缓冲区用完后丢弃，避免偶尔的大消息长期占用内存
+     */
+    private static final int MAX_RETAINED_CAPACITY = 8192;
+
+    private static final ThreadLocal<FormatBuffer> LOCAL = new ThreadLocal<>();
+
+    final StringBuilder sbuf = new StringBuilder(INITIAL_CAPACITY);
+
+    private char[] chars;
+
+    private byte[] bytes;
+
+    private final boolean pooled;
+
+    private boolean inUse;
+
+    private FormatBuffer(boolean pooled) {
+        this.pooled = pooled;
+    }
+
+    static FormatBuffer acquire() {
+        FormatBuffer buffer = LOCAL.get();
+        if (buffer == null) {
+            buffer = new FormatBuffer(true);
+            LOCAL.set(buffer);
+        } else if (buffer.inUse) {
+            return new FormatBuffer(false);
+        }
+        buffer.inUse = true;
+        return buffer;
+    }
+
+    void release() {
+        if (!pooled) {
+            return;
+        }
+        inUse = false;
+        if (sbuf.capacity() > MAX_RETAINED_CAPACITY || (bytes != null && bytes.length > MAX_RETAINED_CAPACITY * 3)) {
+            LOCAL.remove();
+        } else {
+            sbuf.setLength(0);
+        }
+    }
+
+    void writeTo(Appendable out) throws IOException {
+        int len = sbuf.length();
+        if (out instanceof Writer) {
+            if (chars == null || chars.length < len) {
+                chars = new char[Math.max(len, INITIAL_CAPACITY)];
+            }
+            sbuf.getChars(0, len, chars, 0);
+            ((Writer) out).write(chars, 0, len);
+        } else {
+            out.append(sbuf, 0, len);
+        }
+    }
+
+    /**
+     * 按UTF-8编码写入out，不成对的代理字符输出'?'，和String.getBytes(UTF_8)一致
+     * 堆内缓冲区直接写入底层数组，直接缓冲区先编码到复用的byte[]再整体写入
+     *
+     * @return 写入的字节数
+     * @throws BufferOverflowException out剩余空间不足，此时out不变
+     */
+    int encodeTo(ByteBuffer out) {
+        int len = sbuf.length();
+        int size = utf8Length(sbuf, len);
+        if (size > out.remaining()) {
+            throw new BufferOverflowException();
+        }
+        if (out.hasArray()) {
+            encode(sbuf, len, out.array(), out.arrayOffset() + out.position());
+            out.position(out.position() + size);
+        } else {
+            if (bytes == null || bytes.length < size) {
+                bytes = new byte[Math.max(size, INITIAL_CAPACITY)];
+            }
+            encode(sbuf, len, bytes, 0);
+            out.put(bytes, 0, size);
+        }
+        return size;
+    }
+
+    static int encode(CharSequence cs, int len, byte[] array, int p) {
+        for (int i = 0; i < len; i++) {
+            char c = cs.charAt(i);
+            if (c < 0x80) {
+                array[p++] = (byte) c;
+            } else if (c < 0x800) {
+                array[p++] = (byte) (0xC0 | (c >> 6));
+                array[p++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                int cp = codePointAt(cs, i, len);
+                if (cp < 0) {
+                    array[p++] = (byte) '?';
+                } else {
+                    array[p++] = (byte) (0xF0 | (cp >> 18));
+                    array[p++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    array[p++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    array[p++] = (byte) (0x80 | (cp & 0x3F));
+                    i++;
+                }
+            } else {
+                array[p++] = (byte) (0xE0 | (c >> 12));
+                array[p++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                array[p++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return p;
+    }
+
+    static int utf8Length(CharSequence cs, int len) {
+        int size = 0;
+        for (int i = 0; i < len; i++) {
+            char c = cs.charAt(i);
+            if (c < 0x80) {
+                size++;
+            } else if (c < 0x800) {
+                size += 2;
+            } else if (Character.isSurrogate(c)) {
+                if (codePointAt(cs, i, len) < 0) {
+                    size++;
+                } else {
+                    size += 4;
+                    i++;
+                }
+            } else {
+                size += 3;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return i处开始的代理对的码点，不成对时返回-1
+     */
+    private static int codePointAt(CharSequence cs, int i, int len) {
+        char high = cs.charAt(i);
+        if (Character.isHighSurrogate(high) && i + 1 < len) {
+            char low = cs.charAt(i + 1);
+            if (Character.isLowSurrogate(low)) {
+                return Character.toCodePoint(high, low);
+            }
+        }
+        return -1;
+    }
+}
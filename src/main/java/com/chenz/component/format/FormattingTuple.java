@@ -2,9 +2,19 @@ package com.chenz.component.format;
 
 public class FormattingTuple {
     public static FormattingTuple NULL = new FormattingTuple((String)null);
-    private String message;
-    private Throwable throwable;
-    private Object[] argArray;
+    private volatile String message;
+    private final Throwable throwable;
+    private volatile Object[] argArray;
+
+    /**
+     * 延迟模式的模板和参数，renderArgs渲染后释放
+     */
+    private final MessageTemplate template;
+    private final Object[] rawArgs;
+    private Object[] renderArgs;
+
+    private volatile boolean rendered;
+    private volatile boolean trimmed;
 
     public FormattingTuple(String message) {
         this(message, (Object[])null, (Throwable)null);
@@ -14,17 +24,85 @@ public class FormattingTuple {
         this.message = message;
         this.throwable = throwable;
         this.argArray = argArray;
+        this.template = null;
+        this.rawArgs = null;
+        this.rendered = true;
+        this.trimmed = true;
+    }
+
+    /**
+     * 延迟模式，第一次getMessage时才格式化，getArgArray时才复制去掉异常后的参数
+     * 数组和StringBuilder/StringBuffer参数创建时先转成字符串，避免之后被修改；其他参数在格式化时才调用toString
+     */
+    FormattingTuple(MessageTemplate template, Object[] argArray) {
+        this.template = template;
+        this.rawArgs = argArray;
+        this.throwable = MessageFormatter.getThrowableCandidate(argArray);
+        Object[] args = argArray;
+        int qty = Math.min(argQty(), template.getPlaceholderQty());
+        for (int k = 0; k < qty; k++) {
+            Object o = argArray[k];
+            if (o != null && (o.getClass().isArray() || o instanceof StringBuilder || o instanceof StringBuffer)) {
+                if (args == argArray) {
+                    args = argArray.clone();
+                }
+                StringBuilder sbuf = new StringBuilder();
+                MessageFormatter.deeplyAppendParameter(sbuf, o, null);
+                args[k] = sbuf.toString();
+            }
+        }
+        this.renderArgs = args;
+    }
+
+    private int argQty() {
+        return throwable == null ? rawArgs.length : rawArgs.length - 1;
     }
 
     public String getMessage() {
+        if (!rendered) {
+            synchronized (this) {
+                if (!rendered) {
+                    StringBuilder sbuf = new StringBuilder(template.getPattern().length() + 50);
+                    template.appendTo(sbuf, renderArgs, argQty());
+                    message = sbuf.toString();
+                    renderArgs = null;
+                    rendered = true;
+                }
+            }
+        }
         return this.message;
     }
 
+    /**
+     * 输出消息到sbuf，延迟模式还没有生成消息时直接格式化到sbuf，不创建String
+     */
+    void appendTo(StringBuilder sbuf) {
+        if (rendered) {
+            sbuf.append(message);
+            return;
+        }
+        synchronized (this) {
+            if (rendered) {
+                sbuf.append(message);
+            } else {
+                template.appendTo(sbuf, renderArgs, argQty());
+            }
+        }
+    }
+
     public Object[] getArgArray() {
+        if (!trimmed) {
+            synchronized (this) {
+                if (!trimmed) {
+                    argArray = throwable == null ? rawArgs : MessageFormatter.trimmedCopy(rawArgs);
+                    trimmed = true;
+                }
+            }
+        }
         return this.argArray;
     }
 
     public Throwable getThrowable() {
         return this.throwable;
     }
-}
\ No newline at end of file
+}
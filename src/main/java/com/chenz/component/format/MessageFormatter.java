@@ -1,14 +1,27 @@
 package com.chenz.component.format;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
 
 public final class MessageFormatter {
-    private final static char DELIM_START = '{';
+    final static char DELIM_START = '{';
     private final static char DELIM_STOP = '}';
-    private final static String DELIM_STR = "{}";
+    final static String DELIM_STR = "{}";
     private static char ESCAPE_CHAR = '\\';
 
+    /**
+     * 缓存的模板数量上限，达到后清空重新缓存，避免动态拼接的模板占满内存，也不会让之后新增的固定模板一直得不到缓存
+     */
+    private final static int MAX_CACHED_TEMPLATES = 1024;
+
+    private final static Map<String, MessageTemplate> TEMPLATES = new ConcurrentHashMap<>();
+
+    private static volatile BiConsumer<String, Throwable> reporter;
+
     public MessageFormatter() {
     }
 
@@ -32,41 +45,125 @@ public final class MessageFormatter {
         } else if (argArray == null) {
             return new FormattingTuple(messagePattern);
         } else {
-            int i = 0;
-            StringBuilder sbuf = new StringBuilder(messagePattern.length() + 50);
-
-            for(int L = 0; L < argArray.length; ++L) {
-                int j = messagePattern.indexOf(DELIM_STR, i);
-                if (j == -1) {
-                    if (i == 0) {
-                        return new FormattingTuple(messagePattern, argArray, throwable);
-                    }
-
-                    sbuf.append(messagePattern, i, messagePattern.length());
-                    return new FormattingTuple(sbuf.toString(), argArray, throwable);
-                }
+            return compile(messagePattern).arrayFormat(argArray, throwable);
+        }
+    }
 
-                if (isEscapedDelimeter(messagePattern, j)) {
-                    if (!isDoubleEscaped(messagePattern, j)) {
-                        --L;
-                        sbuf.append(messagePattern, i, j - 1);
-                        sbuf.append(DELIM_START);
-                        i = j + 1;
-                    } else {
-                        sbuf.append(messagePattern, i, j - 1);
-                        deeplyAppendParameter(sbuf, argArray[L], new HashMap());
-                        i = j + 2;
-                    }
-                } else {
-                    sbuf.append(messagePattern, i, j);
-                    deeplyAppendParameter(sbuf, argArray[L], new HashMap());
-                    i = j + 2;
-                }
-            }
+    /**
+     * 延迟格式化，参数和模板先保存在FormattingTuple中，第一次getMessage时才生成消息并缓存
+     */
+    public static FormattingTuple lazyFormat(String messagePattern, Object... argArray) {
+        if (messagePattern == null) {
+            return arrayFormat(messagePattern, argArray);
+        }
+        return compile(messagePattern).lazyFormat(argArray);
+    }
+
+    /**
+     * 格式化到调用方的StringBuilder，不创建FormattingTuple和String
+     * 和format一样，最后一个参数是Throwable时不参与格式化，需要时通过getThrowableCandidate获取
+     *
+     * @param messagePattern 为null时输出"null"
+     */
+    public static void formatTo(StringBuilder sbuf, String messagePattern, Object... argArray) {
+        template(messagePattern).formatTo(sbuf, argArray);
+    }
+
+    /*
+     * 固定参数数量的重载，不创建可变参数数组，基本类型参数不装箱，见MessageTemplate
+     */
+
+    public static void formatTo(StringBuilder sbuf, String messagePattern, Object arg) {
+        template(messagePattern).formatTo(sbuf, arg);
+    }
+
+    public static void formatTo(StringBuilder sbuf, String messagePattern, long arg) {
+        template(messagePattern).formatTo(sbuf, arg);
+    }
+
+    public static void formatTo(StringBuilder sbuf, String messagePattern, double arg) {
+        template(messagePattern).formatTo(sbuf, arg);
+    }
+
+    public static void formatTo(StringBuilder sbuf, String messagePattern, float arg) {
+        template(messagePattern).formatTo(sbuf, arg);
+    }
+
+    public static void formatTo(StringBuilder sbuf, String messagePattern, char arg) {
+        template(messagePattern).formatTo(sbuf, arg);
+    }
+
+    public static void formatTo(StringBuilder sbuf, String messagePattern, Object arg1, Object arg2) {
+        template(messagePattern).formatTo(sbuf, arg1, arg2);
+    }
+
+    public static void formatTo(StringBuilder sbuf, String messagePattern, String arg1, long arg2) {
+        template(messagePattern).formatTo(sbuf, arg1, arg2);
+    }
 
-            sbuf.append(messagePattern, i, messagePattern.length());
-            return new FormattingTuple(sbuf.toString(), argArray, throwable);
+    public static void formatTo(StringBuilder sbuf, String messagePattern, String arg1, char arg2) {
+        template(messagePattern).formatTo(sbuf, arg1, arg2);
+    }
+
+    public static void formatTo(StringBuilder sbuf, String messagePattern, Object arg1, Object arg2, Object arg3) {
+        template(messagePattern).formatTo(sbuf, arg1, arg2, arg3);
+    }
+
+    public static void formatTo(StringBuilder sbuf, String messagePattern, String arg1, String arg2, long arg3) {
+        template(messagePattern).formatTo(sbuf, arg1, arg2, arg3);
+    }
+
+    public static void formatTo(StringBuilder sbuf, String messagePattern, String arg1, String arg2, char arg3) {
+        template(messagePattern).formatTo(sbuf, arg1, arg2, arg3);
+    }
+
+    public static void formatTo(StringBuilder sbuf, String messagePattern, Object arg1, Object arg2, Object arg3, Object arg4) {
+        template(messagePattern).formatTo(sbuf, arg1, arg2, arg3, arg4);
+    }
+
+    /**
+     * 先格式化到线程本地的缓冲区，再写入out
+     */
+    public static void formatTo(Appendable out, String messagePattern, Object... argArray) throws IOException {
+        template(messagePattern).formatTo(out, argArray);
+    }
+
+    /**
+     * 按UTF-8编码写入out，可以直接用于FileChannel、SocketChannel
+     *
+     * @return 写入的字节数
+     * @throws java.nio.BufferOverflowException out剩余空间不足，此时out不变
+     */
+    public static int formatTo(ByteBuffer out, String messagePattern, Object... argArray) {
+        return template(messagePattern).formatTo(out, argArray);
+    }
+
+    private static MessageTemplate template(String messagePattern) {
+        return compile(messagePattern == null ? "null" : messagePattern);
+    }
+
+    /**
+     * 编译模板并缓存，缓存达到上限时清空，之后用到的模板会重新编译
+     *
+     * @return 不可变的模板，可以保存在常量中重复使用
+     */
+    public static MessageTemplate compile(String messagePattern) {
+        if (messagePattern == null) {
+            throw new NullPointerException("messagePattern");
         }
+        MessageTemplate template = TEMPLATES.get(messagePattern);
+        if (template == null) {
+            template = MessageTemplate.compile(messagePattern);
+            if (TEMPLATES.size() >= MAX_CACHED_TEMPLATES) {
+                //常用的模板很快会重新编译进来
+                TEMPLATES.clear();
+            }
+            MessageTemplate existing = TEMPLATES.putIfAbsent(messagePattern, template);
+            if (existing != null) {
+                template = existing;
+            }
+        }
+        return template;
     }
 
     static boolean isEscapedDelimeter(String messagePattern, int delimeterStartIndex) {
@@ -82,7 +179,10 @@ public final class MessageFormatter {
         return delimeterStartIndex >= 2 && messagePattern.charAt(delimeterStartIndex - 2) == ESCAPE_CHAR;
     }
 
-    private static void deeplyAppendParameter(StringBuilder sbuf, Object o, Map<Object[], Object> seenMap) {
+    /**
+     * @param seenMap 为null时在遇到Object[]参数时再创建
+     */
+    static void deeplyAppendParameter(StringBuilder sbuf, Object o, Map<Object[], Object> seenMap) {
         if (o == null) {
             sbuf.append("null");
         } else {
@@ -112,6 +212,29 @@ public final class MessageFormatter {
     }
 
     private static void safeObjectAppend(StringBuilder sbuf, Object o) {
+        //常见类型直接写入sbuf，不调用toString创建临时String
+        if (o instanceof String) {
+            sbuf.append((String)o);
+            return;
+        } else if (o instanceof Integer || o instanceof Short || o instanceof Byte) {
+            sbuf.append(((Number)o).intValue());
+            return;
+        } else if (o instanceof Long) {
+            sbuf.append(((Long)o).longValue());
+            return;
+        } else if (o instanceof Double) {
+            sbuf.append(((Double)o).doubleValue());
+            return;
+        } else if (o instanceof Float) {
+            sbuf.append(((Float)o).floatValue());
+            return;
+        } else if (o instanceof Boolean) {
+            sbuf.append(((Boolean)o).booleanValue());
+            return;
+        } else if (o instanceof Character) {
+            sbuf.append(((Character)o).charValue());
+            return;
+        }
         try {
             String oAsString = o.toString();
             sbuf.append(oAsString);
@@ -124,6 +247,9 @@ public final class MessageFormatter {
 
     private static void objectArrayAppend(StringBuilder sbuf, Object[] a, Map<Object[], Object> seenMap) {
         sbuf.append('[');
+        if (seenMap == null) {
+            seenMap = new HashMap<>();
+        }
         if (!seenMap.containsKey(a)) {
             seenMap.put(a, (Object)null);
             int len = a.length;
@@ -279,11 +405,27 @@ public final class MessageFormatter {
     }
 
     public static void report(String msg, Throwable t) {
+        BiConsumer<String, Throwable> reporter = MessageFormatter.reporter;
+        if (reporter != null) {
+            reporter.accept(msg, t);
+            return;
+        }
         System.err.println(msg);
         System.err.println("Reported exception:");
         t.printStackTrace();
     }
 
+    /**
+     * @param reporter report的输出位置，为null时输出到System.err，例如AsyncFileAppender.installAsReporter
+     */
+    public static void setReporter(BiConsumer<String, Throwable> reporter) {
+        MessageFormatter.reporter = reporter;
+    }
+
+    static BiConsumer<String, Throwable> getReporter() {
+        return reporter;
+    }
+
     public static void main(String[] args) {
         FormattingTuple format = MessageFormatter.format("aa: {}, bb: {}, cc: {}", 1, 2, 3, 4, new RuntimeException("1111"));
         String message = format.getMessage();
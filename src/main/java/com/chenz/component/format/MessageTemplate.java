@@ -0,0 +1,336 @@
+package com.chenz.component.format;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 预编译的消息模板，不可变，可以在多个线程间共享
+ * 编译时解析好占位符和转义（\{} 输出 {}，\\{} 输出 \ 和参数），格式化时不再扫描模板，结果和MessageFormatter.arrayFormat完全一致
+ */
+public final class MessageTemplate {
+    private final String pattern;
+
+    /**
+     * 第k个占位符之前的字面量，已处理转义
+     */
+    private final String[] segments;
+
+    /**
+     * 第k个占位符之后在模板中的位置，参数用完时从这里原样输出模板剩余部分
+     */
+    private final int[] rawEnds;
+
+    /**
+     * 最后一个占位符之后的字面量，已处理转义
+     */
+    private final String tail;
+
+    /**
+     * 模板中没有 {}，格式化结果就是模板本身
+     */
+    private final boolean plain;
+
+    private MessageTemplate(String pattern, String[] segments, int[] rawEnds, String tail, boolean plain) {
+        this.pattern = pattern;
+        this.segments = segments;
+        this.rawEnds = rawEnds;
+        this.tail = tail;
+        this.plain = plain;
+    }
+
+    static MessageTemplate compile(String pattern) {
+        List<String> segments = new ArrayList<>();
+        List<Integer> rawEnds = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        int j;
+        while ((j = pattern.indexOf(MessageFormatter.DELIM_STR, i)) != -1) {
+            if (MessageFormatter.isEscapedDelimeter(pattern, j)) {
+                if (!MessageFormatter.isDoubleEscaped(pattern, j)) {
+                    literal.append(pattern, i, j - 1);
+                    literal.append(MessageFormatter.DELIM_START);
+                    i = j + 1;
+                    continue;
+                }
+                literal.append(pattern, i, j - 1);
+            } else {
+                literal.append(pattern, i, j);
+            }
+            segments.add(literal.toString());
+            literal.setLength(0);
+            i = j + 2;
+            rawEnds.add(i);
+        }
+        literal.append(pattern, i, pattern.length());
+
+        int[] ends = new int[rawEnds.size()];
+        for (int k = 0; k < ends.length; k++) {
+            ends[k] = rawEnds.get(k);
+        }
+        return new MessageTemplate(pattern, segments.toArray(new String[0]), ends, literal.toString(), i == 0);
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * @return 占位符数量，不包括转义的 {}
+     */
+    public int getPlaceholderQty() {
+        return segments.length;
+    }
+
+    public FormattingTuple format(Object... argArray) {
+        return arrayFormat(argArray);
+    }
+
+    /**
+     * 最后一个参数是Throwable时作为异常，不参与格式化
+     */
+    public FormattingTuple arrayFormat(Object[] argArray) {
+        Throwable throwableCandidate = MessageFormatter.getThrowableCandidate(argArray);
+        Object[] args = argArray;
+        if (throwableCandidate != null) {
+            args = MessageFormatter.trimmedCopy(argArray);
+        }
+
+        return arrayFormat(args, throwableCandidate);
+    }
+
+    public FormattingTuple arrayFormat(Object[] argArray, Throwable throwable) {
+        if (argArray == null) {
+            return new FormattingTuple(pattern);
+        } else if (plain && argArray.length > 0) {
+            return new FormattingTuple(pattern, argArray, throwable);
+        } else {
+            StringBuilder sbuf = new StringBuilder(pattern.length() + 50);
+            appendTo(sbuf, argArray, argArray.length);
+            return new FormattingTuple(sbuf.toString(), argArray, throwable);
+        }
+    }
+
+    /**
+     * 延迟格式化，第一次getMessage时才生成消息，适合大部分情况下不会用到消息的场景
+     */
+    public FormattingTuple lazyFormat(Object... argArray) {
+        if (argArray == null) {
+            return new FormattingTuple(pattern);
+        }
+        return new FormattingTuple(this, argArray);
+    }
+
+    /**
+     * 格式化到调用方的StringBuilder，最后一个参数是Throwable时不参与格式化
+     */
+    public void formatTo(StringBuilder sbuf, Object... argArray) {
+        if (argArray == null) {
+            sbuf.append(pattern);
+            return;
+        }
+        int argQty = argArray.length;
+        if (argQty > 0 && argArray[argQty - 1] instanceof Throwable) {
+            argQty--;
+        }
+        appendTo(sbuf, argArray, argQty);
+    }
+
+    /**
+     * 先格式化到线程本地的缓冲区，再写入out
+     */
+    public void formatTo(Appendable out, Object... argArray) throws IOException {
+        if (out instanceof StringBuilder) {
+            formatTo((StringBuilder) out, argArray);
+            return;
+        }
+        FormatBuffer buffer = FormatBuffer.acquire();
+        try {
+            formatTo(buffer.sbuf, argArray);
+            buffer.writeTo(out);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    /**
+     * 按UTF-8编码写入out
+     *
+     * @return 写入的字节数
+     * @throws java.nio.BufferOverflowException out剩余空间不足，此时out不变
+     */
+    public int formatTo(ByteBuffer out, Object... argArray) {
+        FormatBuffer buffer = FormatBuffer.acquire();
+        try {
+            formatTo(buffer.sbuf, argArray);
+            return buffer.encodeTo(out);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    /*
+     * 固定参数数量的重载，不创建可变参数数组；基本类型直接写入sbuf，不装箱。
+     * 和可变参数版本一样，最后一个Object参数是Throwable时不参与格式化。
+     * char、float会被拓宽后匹配long、double重载，所以同时提供char、float重载，输出和装箱后一致；
+     * 多个参数的基本类型重载前面的参数是String而不是Object，否则和全Object的重载同时匹配时编译报歧义
+     */
+
+    public void formatTo(StringBuilder sbuf, Object arg) {
+        int argQty = arg instanceof Throwable ? 0 : 1;
+        if (segment(sbuf, 0, argQty)) {
+            MessageFormatter.deeplyAppendParameter(sbuf, arg, null);
+        }
+        appendEnd(sbuf, argQty);
+    }
+
+    public void formatTo(StringBuilder sbuf, long arg) {
+        if (segment(sbuf, 0, 1)) {
+            sbuf.append(arg);
+        }
+        appendEnd(sbuf, 1);
+    }
+
+    public void formatTo(StringBuilder sbuf, double arg) {
+        if (segment(sbuf, 0, 1)) {
+            sbuf.append(arg);
+        }
+        appendEnd(sbuf, 1);
+    }
+
+    public void formatTo(StringBuilder sbuf, float arg) {
+        if (segment(sbuf, 0, 1)) {
+            sbuf.append(arg);
+        }
+        appendEnd(sbuf, 1);
+    }
+
+    public void formatTo(StringBuilder sbuf, char arg) {
+        if (segment(sbuf, 0, 1)) {
+            sbuf.append(arg);
+        }
+        appendEnd(sbuf, 1);
+    }
+
+    public void formatTo(StringBuilder sbuf, Object arg1, Object arg2) {
+        int argQty = arg2 instanceof Throwable ? 1 : 2;
+        if (segment(sbuf, 0, argQty)) {
+            MessageFormatter.deeplyAppendParameter(sbuf, arg1, null);
+        }
+        if (segment(sbuf, 1, argQty)) {
+            MessageFormatter.deeplyAppendParameter(sbuf, arg2, null);
+        }
+        appendEnd(sbuf, argQty);
+    }
+
+    public void formatTo(StringBuilder sbuf, String arg1, long arg2) {
+        if (segment(sbuf, 0, 2)) {
+            sbuf.append(arg1);
+        }
+        if (segment(sbuf, 1, 2)) {
+            sbuf.append(arg2);
+        }
+        appendEnd(sbuf, 2);
+    }
+
+    public void formatTo(StringBuilder sbuf, String arg1, char arg2) {
+        if (segment(sbuf, 0, 2)) {
+            sbuf.append(arg1);
+        }
+        if (segment(sbuf, 1, 2)) {
+            sbuf.append(arg2);
+        }
+        appendEnd(sbuf, 2);
+    }
+
+    public void formatTo(StringBuilder sbuf, Object arg1, Object arg2, Object arg3) {
+        int argQty = arg3 instanceof Throwable ? 2 : 3;
+        if (segment(sbuf, 0, argQty)) {
+            MessageFormatter.deeplyAppendParameter(sbuf, arg1, null);
+        }
+        if (segment(sbuf, 1, argQty)) {
+            MessageFormatter.deeplyAppendParameter(sbuf, arg2, null);
+        }
+        if (segment(sbuf, 2, argQty)) {
+            MessageFormatter.deeplyAppendParameter(sbuf, arg3, null);
+        }
+        appendEnd(sbuf, argQty);
+    }
+
+    public void formatTo(StringBuilder sbuf, String arg1, String arg2, long arg3) {
+        if (segment(sbuf, 0, 3)) {
+            sbuf.append(arg1);
+        }
+        if (segment(sbuf, 1, 3)) {
+            sbuf.append(arg2);
+        }
+        if (segment(sbuf, 2, 3)) {
+            sbuf.append(arg3);
+        }
+        appendEnd(sbuf, 3);
+    }
+
+    public void formatTo(StringBuilder sbuf, String arg1, String arg2, char arg3) {
+        if (segment(sbuf, 0, 3)) {
+            sbuf.append(arg1);
+        }
+        if (segment(sbuf, 1, 3)) {
+            sbuf.append(arg2);
+        }
+        if (segment(sbuf, 2, 3)) {
+            sbuf.append(arg3);
+        }
+        appendEnd(sbuf, 3);
+    }
+
+    public void formatTo(StringBuilder sbuf, Object arg1, Object arg2, Object arg3, Object arg4) {
+        int argQty = arg4 instanceof Throwable ? 3 : 4;
+        if (segment(sbuf, 0, argQty)) {
+            MessageFormatter.deeplyAppendParameter(sbuf, arg1, null);
+        }
+        if (segment(sbuf, 1, argQty)) {
+            MessageFormatter.deeplyAppendParameter(sbuf, arg2, null);
+        }
+        if (segment(sbuf, 2, argQty)) {
+            MessageFormatter.deeplyAppendParameter(sbuf, arg3, null);
+        }
+        if (segment(sbuf, 3, argQty)) {
+            MessageFormatter.deeplyAppendParameter(sbuf, arg4, null);
+        }
+        appendEnd(sbuf, argQty);
+    }
+
+    /**
+     * @param argQty 参与格式化的参数数量，不包括作为异常的最后一个参数
+     */
+    void appendTo(StringBuilder sbuf, Object[] argArray, int argQty) {
+        for (int k = 0; segment(sbuf, k, argQty); k++) {
+            MessageFormatter.deeplyAppendParameter(sbuf, argArray[k], null);
+        }
+        appendEnd(sbuf, argQty);
+    }
+
+    /**
+     * 第k个参数需要输出时，先输出它前面的字面量
+     *
+     * @return 是否输出第k个参数
+     */
+    private boolean segment(StringBuilder sbuf, int k, int argQty) {
+        if (k < argQty && k < segments.length) {
+            sbuf.append(segments[k]);
+            return true;
+        }
+        return false;
+    }
+
+    private void appendEnd(StringBuilder sbuf, int argQty) {
+        int qty = Math.min(argQty, segments.length);
+        if (qty == argQty) {
+            //参数用完，和逐个扫描时一样不再处理剩余部分的转义
+            sbuf.append(pattern, qty == 0 ? 0 : rawEnds[qty - 1], pattern.length());
+        } else {
+            sbuf.append(tail);
+        }
+    }
+}
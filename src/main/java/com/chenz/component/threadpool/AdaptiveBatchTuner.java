@@ -0,0 +1,187 @@
+package com.chenz.component.threadpool;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 根据到达速率和批处理耗时，动态调整批次大小(maxQty)和等待时间(period)
+ *
+ * 单条请求的耗时约等于 等待时间 + 批处理耗时，所以：
+ *   等待时间 = 目标p99耗时 - 批处理耗时p99，限制在[minPeriod, maxPeriod]
+ *   批次大小 = 到达速率 * 等待时间，即等待时间内预计到达的数量，限制在[minQty, maxQty]
+ * 流量小时批次大小降到minQty，“业务线程”自己处理，不用等待；流量大时批次被数量触发，等待时间很短
+ */
+public class AdaptiveBatchTuner {
+
+    private static final int HANDLER_SAMPLE_SIZE = 256;
+
+    /**
+     * 到达速率的平滑系数
+     */
+    private static final double RATE_ALPHA = 0.3D;
+
+    private int minQty = 1;
+
+    private int maxQty = 1000;
+
+    /**
+     * 单位（毫秒）
+     */
+    private long minPeriod = 1L;
+
+    /**
+     * 单位（毫秒）
+     */
+    private long maxPeriod = 1000L;
+
+    /**
+     * 目标p99耗时，单位（毫秒）
+     */
+    private long targetP99Latency = 100L;
+
+    /**
+     * 调整间隔，单位（毫秒）
+     */
+    private long tuneInterval = 200L;
+
+    private final LongAdder arrivalCounter = new LongAdder();
+
+    /**
+     * 最近的批处理耗时，环形覆盖
+     */
+    private final AtomicLongArray handlerSamples = new AtomicLongArray(HANDLER_SAMPLE_SIZE);
+
+    private final AtomicLong handlerSampleCursor = new AtomicLong();
+
+    private long lastTuneNanos = System.nanoTime();
+
+    private long lastArrivalQty;
+
+    private volatile double arrivalRate;
+
+    private volatile long handlerP99Nanos;
+
+    private volatile int currentQty = 10;
+
+    private volatile long currentPeriod = 1000L;
+
+    void onArrival() {
+        arrivalCounter.increment();
+    }
+
+    void onBatch(long handlerNanos) {
+        int i = (int) (handlerSampleCursor.getAndIncrement() & (HANDLER_SAMPLE_SIZE - 1));
+        handlerSamples.lazySet(i, handlerNanos);
+    }
+
+    /**
+     * 由"轮循线程"调用，距上次调整超过tuneInterval才重新计算
+     *
+     * @return 是否重新计算
+     */
+    boolean tuneIfDue(long nowNanos) {
+        long elapsed = nowNanos - lastTuneNanos;
+        if (elapsed < TimeUnit.MILLISECONDS.toNanos(tuneInterval)) {
+            return false;
+        }
+        lastTuneNanos = nowNanos;
+
+        long arrivalQty = arrivalCounter.sum();
+        double rate = (arrivalQty - lastArrivalQty) * 1e9D / elapsed;
+        lastArrivalQty = arrivalQty;
+        double smoothedRate = arrivalRate == 0D ? rate : RATE_ALPHA * rate + (1 - RATE_ALPHA) * arrivalRate;
+        arrivalRate = smoothedRate;
+
+        long p99 = handlerP99();
+        handlerP99Nanos = p99;
+
+        long periodNanos = TimeUnit.MILLISECONDS.toNanos(targetP99Latency) - p99;
+        long period = clamp(TimeUnit.NANOSECONDS.toMillis(periodNanos), minPeriod, maxPeriod);
+        long qty = clamp((long) Math.ceil(smoothedRate * period / 1000D), minQty, maxQty);
+        currentPeriod = period;
+        currentQty = (int) qty;
+        return true;
+    }
+
+    private long handlerP99() {
+        int count = (int) Math.min(handlerSampleCursor.get(), HANDLER_SAMPLE_SIZE);
+        if (count == 0) {
+            return 0L;
+        }
+        long[] samples = new long[count];
+        for (int i = 0; i < count; i++) {
+            samples[i] = handlerSamples.get(i);
+        }
+        Arrays.sort(samples);
+        return samples[(int) Math.ceil(count * 0.99D) - 1];
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    public void setQtyBounds(int minQty, int maxQty) {
+        if (minQty < 1 || maxQty < minQty) {
+            throw new IllegalArgumentException("minQty: " + minQty + ", maxQty: " + maxQty);
+        }
+        this.minQty = minQty;
+        this.maxQty = maxQty;
+    }
+
+    public void setPeriodBounds(long minPeriod, long maxPeriod) {
+        if (minPeriod < 1 || maxPeriod < minPeriod) {
+            throw new IllegalArgumentException("minPeriod: " + minPeriod + ", maxPeriod: " + maxPeriod);
+        }
+        this.minPeriod = minPeriod;
+        this.maxPeriod = maxPeriod;
+    }
+
+    public void setTargetP99Latency(long targetP99Latency) {
+        this.targetP99Latency = targetP99Latency;
+    }
+
+    public void setTuneInterval(long tuneInterval) {
+        this.tuneInterval = tuneInterval;
+    }
+
+    public long getTuneInterval() {
+        return tuneInterval;
+    }
+
+    /**
+     * @return 平滑后的到达速率，单位（条/秒）
+     */
+    public double getArrivalRate() {
+        return arrivalRate;
+    }
+
+    /**
+     * @return 最近批处理耗时的p99，单位（纳秒）
+     */
+    public long getHandlerP99Nanos() {
+        return handlerP99Nanos;
+    }
+
+    /**
+     * @return 当前选定的批次大小
+     */
+    public int getCurrentQty() {
+        return currentQty;
+    }
+
+    /**
+     * @return 当前选定的等待时间，单位（毫秒）
+     */
+    public long getCurrentPeriod() {
+        return currentPeriod;
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveBatchTuner{qty=" + currentQty + ", period=" + currentPeriod + "ms, arrivalRate=" + arrivalRate
+                + "/s, handlerP99=" + TimeUnit.NANOSECONDS.toMicros(handlerP99Nanos) + "us}";
+    }
+}
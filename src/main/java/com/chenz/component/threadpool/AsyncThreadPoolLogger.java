@@ -0,0 +1,263 @@
+package com.chenz.component.threadpool;
+
+import com.chenz.component.threadpool.ThreadMonitorExecutor.ThreadPoolLogger;
+
+import java.io.Closeable;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 异步的线程池日志
+ * 工作线程只把基本类型的字段写入预先分配的环形缓冲区（按字段分数组，不创建对象），
+ * 由一个后台线程批量格式化并一次写出，工作线程不再承担格式化和System.out的锁竞争。
+ *
+ * 支持采样（每sampleRate个任务记录一个），超时或有异常的任务总是记录；缓冲区满时丢弃并计数
+ */
+public class AsyncThreadPoolLogger implements ThreadPoolLogger, Closeable {
+
+    private static final int DEFAULT_CAPACITY = 8192;
+
+    /**
+     * 每次最多格式化的数量
+     */
+    private static final int MAX_BATCH = 256;
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final int mask;
+
+    /**
+     * 槽位序号：等于写入序号时可写，等于写入序号+1时可读
+     */
+    private final AtomicLongArray sequences;
+
+    private final String[] threadNames;
+
+    private final String[] tags;
+
+    private final long[] waitCosts;
+
+    private final long[] waitTimeouts;
+
+    private final long[] runCosts;
+
+    private final long[] runTimeouts;
+
+    private final long[] totalQtys;
+
+    private final long[] waitTimeoutQtys;
+
+    private final long[] runTimeoutQtys;
+
+    private final boolean[] waitTimeoutFlags;
+
+    private final boolean[] runTimeoutFlags;
+
+    private final Throwable[] throwables;
+
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * 只有后台线程读写
+     */
+    private long head;
+
+    private final AtomicLong dropCounter = new AtomicLong();
+
+    private final AtomicLong sampledOutCounter = new AtomicLong();
+
+    private final PrintStream out;
+
+    private final StringBuilder buffer = new StringBuilder(MAX_BATCH * 200);
+
+    private final Thread consumer;
+
+    private volatile boolean running = true;
+
+    /**
+     * 每sampleRate个任务记录一个，1表示全部记录
+     */
+    private volatile int sampleRate = 1;
+
+    public AsyncThreadPoolLogger() {
+        this(DEFAULT_CAPACITY, System.out);
+    }
+
+    /**
+     * @param capacity 缓冲区大小，向上取整为2的幂
+     * @param out      输出位置
+     */
+    public AsyncThreadPoolLogger(int capacity, PrintStream out) {
+        int size = MpscRingBatchQueue.roundToPowerOfTwo(capacity);
+        this.mask = size - 1;
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.threadNames = new String[size];
+        this.tags = new String[size];
+        this.waitCosts = new long[size];
+        this.waitTimeouts = new long[size];
+        this.runCosts = new long[size];
+        this.runTimeouts = new long[size];
+        this.totalQtys = new long[size];
+        this.waitTimeoutQtys = new long[size];
+        this.runTimeoutQtys = new long[size];
+        this.waitTimeoutFlags = new boolean[size];
+        this.runTimeoutFlags = new boolean[size];
+        this.throwables = new Throwable[size];
+        this.out = out;
+        this.consumer = new Thread(this::consume, "async-thread-pool-logger");
+        this.consumer.setDaemon(true);
+        this.consumer.start();
+    }
+
+    @Override
+    public void onTaskFinished(String threadName, String tag, long waitCost, long waitTimeout, boolean isWaitTimeout,
+                               long runCost, long runTimeout, boolean isRunTimeout, Throwable t,
+                               long totalQty, long waitTimeoutQty, long runTimeoutQty) {
+        int sampleRate = this.sampleRate;
+        if (sampleRate > 1 && totalQty % sampleRate != 0 && !isWaitTimeout && !isRunTimeout && t == null) {
+            sampledOutCounter.incrementAndGet();
+            return;
+        }
+        long index;
+        int slot;
+        while (true) {
+            index = tail.get();
+            slot = (int) index & mask;
+            long diff = sequences.get(slot) - index;
+            if (diff == 0) {
+                if (tail.compareAndSet(index, index + 1)) {
+                    break;
+                }
+            } else if (diff < 0) {
+                //上一圈的记录还没有被后台线程取走，缓冲区满
+                dropCounter.incrementAndGet();
+                return;
+            }
+            //diff > 0：读到的tail已过期，槽位已被其他线程占用，重新读取
+        }
+        threadNames[slot] = threadName;
+        tags[slot] = tag;
+        waitCosts[slot] = waitCost;
+        waitTimeouts[slot] = waitTimeout;
+        waitTimeoutFlags[slot] = isWaitTimeout;
+        runCosts[slot] = runCost;
+        runTimeouts[slot] = runTimeout;
+        runTimeoutFlags[slot] = isRunTimeout;
+        throwables[slot] = t;
+        totalQtys[slot] = totalQty;
+        waitTimeoutQtys[slot] = waitTimeoutQty;
+        runTimeoutQtys[slot] = runTimeoutQty;
+        //写入序号之后对后台线程可见
+        sequences.lazySet(slot, index + 1);
+    }
+
+    @Override
+    public void log(ThreadMonitorExecutor.ExecutorSnapshot executorSnapshot) {
+        onTaskFinished(executorSnapshot.getThreadName(), executorSnapshot.getTag(), executorSnapshot.getWaitCost(), executorSnapshot.getWaitTimeout(),
+                executorSnapshot.getIsWaitTimeout(), executorSnapshot.getRunCost(), executorSnapshot.getRunTimeout(),
+                executorSnapshot.getIsRunTimeout(), executorSnapshot.getT(), executorSnapshot.getTotalQty(),
+                executorSnapshot.getWaitTimeoutQty(), executorSnapshot.getRunTimeoutQty());
+    }
+
+    private void consume() {
+        while (running) {
+            if (drain() == 0) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+        }
+        while (drain() > 0) {
+            //关闭时写完剩余的
+        }
+    }
+
+    /**
+     * @return 本次写出的数量
+     */
+    private int drain() {
+        int count = 0;
+        buffer.setLength(0);
+        while (count < MAX_BATCH) {
+            int slot = (int) head & mask;
+            if (sequences.get(slot) != head + 1) {
+                break;
+            }
+            format(slot);
+            throwables[slot] = null;
+            threadNames[slot] = null;
+            tags[slot] = null;
+            sequences.lazySet(slot, head + mask + 1);
+            head++;
+            count++;
+        }
+        if (count > 0) {
+            out.print(buffer);
+            out.flush();
+        }
+        return count;
+    }
+
+    /**
+     * 格式与ThreadPoolLogger.log相同，有tag时在线程名后面输出 [tag]
+     */
+    private void format(int slot) {
+        Throwable t = throwables[slot];
+        String message = t == null ? null : t.getMessage();
+        buffer.append(threadNames[slot]);
+        String tag = tags[slot];
+        if (tag != null) {
+            buffer.append(" [").append(tag).append(']');
+        }
+        buffer.append(" execute finish. waitCost/waitTimeout: [")
+                .append(waitCosts[slot]).append('/').append(waitTimeouts[slot]).append('=').append(waitTimeoutFlags[slot])
+                .append("], runCost/runTimeout: [")
+                .append(runCosts[slot]).append('/').append(runTimeouts[slot]).append('=').append(runTimeoutFlags[slot])
+                .append("], ex: ").append(message == null ? "" : message)
+                .append(", totalQty/waitTimeout/runTimeout: [")
+                .append(totalQtys[slot]).append('/').append(waitTimeoutQtys[slot]).append('/').append(runTimeoutQtys[slot])
+                .append(']').append(System.lineSeparator());
+    }
+
+    /**
+     * @param sampleRate 每sampleRate个任务记录一个，超时或有异常的任务总是记录
+     */
+    public void setSampleRate(int sampleRate) {
+        if (sampleRate < 1) {
+            throw new IllegalArgumentException("sampleRate: " + sampleRate);
+        }
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * @return 缓冲区满被丢弃的数量
+     */
+    public long getDropQty() {
+        return dropCounter.get();
+    }
+
+    /**
+     * @return 因采样未记录的数量
+     */
+    public long getSampledOutQty() {
+        return sampledOutCounter.get();
+    }
+
+    /**
+     * 停止后台线程，写出缓冲区中剩余的日志
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
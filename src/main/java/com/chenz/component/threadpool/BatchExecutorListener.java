@@ -0,0 +1,15 @@
+package com.chenz.component.threadpool;
+
+/**
+ * CallerRunsBatchExecutor每批处理完成后的回调，参数都是基本类型，不产生额外对象
+ */
+public interface BatchExecutorListener {
+
+    /**
+     * @param trigger      触发方式
+     * @param batchSize    批次大小
+     * @param handlerNanos 批处理逻辑耗时，单位（纳秒）
+     * @param error        整批失败的原因，成功时为null
+     */
+    void onFlush(CallerRunsBatchExecutor.FlushTrigger trigger, int batchSize, long handlerNanos, Throwable error);
+}
@@ -0,0 +1,134 @@
+package com.chenz.component.threadpool;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CallerRunsBatchExecutor的指标，JMX和Prometheus共用，按cacheMillis缓存快照
+ */
+public class BatchExecutorMetrics implements BatchExecutorMetricsMXBean {
+
+    private static final long DEFAULT_CACHE_MILLIS = 1000L;
+
+    private final String name;
+
+    private final CallerRunsBatchExecutor<?, ?> executor;
+
+    private volatile long cacheMillis = DEFAULT_CACHE_MILLIS;
+
+    private volatile BatchExecutorSnapshot cached;
+
+    private volatile long cachedNanos;
+
+    public BatchExecutorMetrics(String name, CallerRunsBatchExecutor<?, ?> executor) {
+        this.name = name;
+        this.executor = executor;
+    }
+
+    /**
+     * @return 缓存的快照，超过cacheMillis时重新生成
+     */
+    public BatchExecutorSnapshot snapshot() {
+        BatchExecutorSnapshot snapshot = cached;
+        long now = System.nanoTime();
+        if (snapshot == null || now - cachedNanos > TimeUnit.MILLISECONDS.toNanos(cacheMillis)) {
+            snapshot = executor.snapshot();
+            cached = snapshot;
+            cachedNanos = now;
+        }
+        return snapshot;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getHandledQty() {
+        return snapshot().getHandledQty();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return snapshot().getQueueDepth();
+    }
+
+    @Override
+    public int getCapacity() {
+        return snapshot().getCapacity();
+    }
+
+    @Override
+    public int getInFlightQty() {
+        return snapshot().getInFlightQty();
+    }
+
+    @Override
+    public long getDropQty() {
+        return snapshot().getDropQty();
+    }
+
+    @Override
+    public long getRejectQty() {
+        return snapshot().getRejectQty();
+    }
+
+    @Override
+    public long getCoalescedQty() {
+        return snapshot().getCoalescedQty();
+    }
+
+    @Override
+    public long getSizeFlushQty() {
+        return snapshot().getSizeFlushQty();
+    }
+
+    @Override
+    public long getTimerFlushQty() {
+        return snapshot().getTimerFlushQty();
+    }
+
+    @Override
+    public long getCallerFlushQty() {
+        return snapshot().getCallerFlushQty();
+    }
+
+    @Override
+    public long getPeriod() {
+        return snapshot().getPeriod();
+    }
+
+    @Override
+    public int getMaxQty() {
+        return snapshot().getMaxQty();
+    }
+
+    @Override
+    public long getBatchSizeP50() {
+        return snapshot().getBatchSize().getPercentile(50);
+    }
+
+    @Override
+    public long getBatchSizeP99() {
+        return snapshot().getBatchSize().getPercentile(99);
+    }
+
+    @Override
+    public double getQueueTimeP99() {
+        return ExecutorMetrics.toMillis(snapshot().getQueueTime().getPercentile(99));
+    }
+
+    @Override
+    public double getHandlerTimeP50() {
+        return ExecutorMetrics.toMillis(snapshot().getHandlerTime().getPercentile(50));
+    }
+
+    @Override
+    public double getHandlerTimeP99() {
+        return ExecutorMetrics.toMillis(snapshot().getHandlerTime().getPercentile(99));
+    }
+
+    public void setCacheMillis(long cacheMillis) {
+        this.cacheMillis = cacheMillis;
+    }
+}
@@ -0,0 +1,43 @@
+package com.chenz.component.threadpool;
+
+/**
+ * CallerRunsBatchExecutor的JMX接口，耗时单位（毫秒）
+ */
+public interface BatchExecutorMetricsMXBean {
+
+    String getName();
+
+    long getHandledQty();
+
+    int getQueueDepth();
+
+    int getCapacity();
+
+    int getInFlightQty();
+
+    long getDropQty();
+
+    long getRejectQty();
+
+    long getCoalescedQty();
+
+    long getSizeFlushQty();
+
+    long getTimerFlushQty();
+
+    long getCallerFlushQty();
+
+    long getPeriod();
+
+    int getMaxQty();
+
+    long getBatchSizeP50();
+
+    long getBatchSizeP99();
+
+    double getQueueTimeP99();
+
+    double getHandlerTimeP50();
+
+    double getHandlerTimeP99();
+}
@@ -0,0 +1,52 @@
+package com.chenz.component.threadpool;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * CallerRunsBatchExecutor的统计快照
+ */
+@Getter
+@Setter
+public class BatchExecutorSnapshot {
+    /**
+     * 已处理的数量
+     */
+    private long handledQty;
+    /**
+     * 数量触发，由"轮循线程"处理的批次数量
+     */
+    private long sizeFlushQty;
+    /**
+     * 时间触发的批次数量
+     */
+    private long timerFlushQty;
+    /**
+     * “业务线程”处理的批次数量
+     */
+    private long callerFlushQty;
+    private long shutdownFlushQty;
+    /**
+     * 当前队列中的数量
+     */
+    private int queueDepth;
+    private int capacity;
+    private int inFlightQty;
+    private long dropQty;
+    private long rejectQty;
+    private long coalescedQty;
+    /**
+     * 当前的等待时间，单位（毫秒）
+     */
+    private long period;
+    private int maxQty;
+    private LongHistogram.Snapshot batchSize;
+    /**
+     * 每条数据在队列中的时间，单位（纳秒）
+     */
+    private LongHistogram.Snapshot queueTime;
+    /**
+     * 批处理逻辑耗时，单位（纳秒）
+     */
+    private LongHistogram.Snapshot handlerTime;
+}
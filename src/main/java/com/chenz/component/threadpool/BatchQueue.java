@@ -0,0 +1,38 @@
+package com.chenz.component.threadpool;
+
+import java.util.Collection;
+
+/**
+ * 批处理队列
+ * 生产者（“业务线程”）可以有多个，消费者同一时刻只能有一个，由调用方保证
+ *
+ * @param <E> 元素
+ */
+public interface BatchQueue<E> {
+
+    /**
+     * @return 队列已满时返回false
+     */
+    boolean offer(E e);
+
+    /**
+     * @return 队列为空时返回null
+     */
+    E poll();
+
+    /**
+     * 取出最多maxElements个元素
+     *
+     * @return 实际取出的数量
+     */
+    int drainTo(Collection<? super E> c, int maxElements);
+
+    /**
+     * 并发时为近似值
+     */
+    int size();
+
+    boolean isEmpty();
+
+    int capacity();
+}
@@ -0,0 +1,478 @@
+package com.chenz.component.threadpool;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 批处理数据的落盘日志，分段的内存映射(mmap)追加文件
+ *
+ * 用途：
+ * 1. 持久化：每条数据add时先追加到日志，批次处理完后确认(ack)，进程崩溃或重新部署后，重新处理未确认的数据
+ * 2. 溢出：内存队列满时数据只写日志（spilled），不占用堆内存，"轮循线程"在队列有空位时再读回队列
+ *
+ * 记录格式：[int 长度][byte 状态][byte 标记][数据]
+ * 长度最后写入，写到一半崩溃的记录长度为0，恢复时当作文件结尾。
+ * 确认时直接修改映射内存中的状态字节，不额外写文件。
+ * 段文件写满后封存，封存的段所有记录都已确认、且读回游标已经越过时删除。
+ *
+ * 写入(append)可以多线程，读回(nextSpilled)只能有一个线程
+ *
+ * @param <T> 数据
+ */
+public class BatchSpillLog<T> implements Closeable {
+
+    private static final int HEADER_SIZE = 6;
+
+    private static final byte STATE_PENDING = 0;
+
+    private static final byte STATE_ACKED = 1;
+
+    private static final byte FLAG_SPILLED = 1;
+
+    private static final String SUFFIX = ".log";
+
+    private static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private final Path dir;
+
+    private final Serializer<T> serializer;
+
+    private final int segmentSize;
+
+    private final FsyncPolicy fsyncPolicy;
+
+    /**
+     * PERIODIC时刷盘间隔，单位（毫秒）
+     */
+    private volatile long fsyncInterval = 1000L;
+
+    private long lastSyncNanos = System.nanoTime();
+
+    private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+
+    private Segment active;
+
+    /**
+     * 读回游标
+     */
+    private int cursorSegmentId;
+
+    private int cursorOffset;
+
+    /**
+     * 写入日志但还没读回队列的数量
+     */
+    private final AtomicLong spilledCounter = new AtomicLong();
+
+    public BatchSpillLog(Path dir, Serializer<T> serializer) {
+        this(dir, serializer, DEFAULT_SEGMENT_SIZE, FsyncPolicy.NONE);
+    }
+
+    /**
+     * 打开目录下已有的段文件，其中未确认的记录会被当作溢出数据，重新读回队列处理
+     *
+     * @param segmentSize 单个段文件的大小，单位（字节）
+     */
+    public BatchSpillLog(Path dir, Serializer<T> serializer, int segmentSize, FsyncPolicy fsyncPolicy) {
+        this.dir = Objects.requireNonNull(dir, "dir");
+        this.serializer = Objects.requireNonNull(serializer, "serializer");
+        this.fsyncPolicy = Objects.requireNonNull(fsyncPolicy, "fsyncPolicy");
+        if (segmentSize <= HEADER_SIZE) {
+            throw new IllegalArgumentException("segmentSize: " + segmentSize);
+        }
+        this.segmentSize = segmentSize;
+        try {
+            Files.createDirectories(dir);
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException("open spill log failed: " + dir, e);
+        }
+    }
+
+    private void recover() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                int id;
+                try {
+                    id = Integer.parseInt(name.substring(0, name.length() - SUFFIX.length()));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                Segment segment = Segment.open(id, path, (int) Files.size(path));
+                segment.recovered = true;
+                segment.sealed = true;
+                int offset = 0;
+                while (offset + HEADER_SIZE <= segment.size) {
+                    int length = segment.buffer.getInt(offset);
+                    if (length <= 0 || offset + HEADER_SIZE + length > segment.size) {
+                        break;
+                    }
+                    if (segment.buffer.get(offset + 4) == STATE_PENDING) {
+                        segment.pending.incrementAndGet();
+                        spilledCounter.incrementAndGet();
+                    }
+                    offset += HEADER_SIZE + length;
+                }
+                segment.writePosition = offset;
+                segments.put(id, segment);
+            }
+        }
+        int nextId = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+        cursorSegmentId = segments.isEmpty() ? nextId : segments.firstKey();
+        active = newSegment(nextId);
+        //已经全部确认的旧段直接回收
+        for (Segment segment : segments.values()) {
+            if (segment != active && segment.pending.get() == 0) {
+                delete(segment);
+            }
+        }
+    }
+
+    private Segment newSegment(int id) throws IOException {
+        Segment segment = Segment.open(id, dir.resolve(String.format("%010d", id) + SUFFIX), segmentSize);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    /**
+     * 追加一条记录
+     *
+     * @param spilled 是否溢出（不在内存队列中，需要读回）
+     * @return 记录位置，用于确认
+     * @throws IllegalArgumentException 序列化结果为空或超过段大小
+     */
+    public long append(T item, boolean spilled) {
+        byte[] bytes = serializer.serialize(item);
+        if (bytes.length == 0) {
+            //长度0表示段结尾，恢复时之后的记录会丢失
+            throw new IllegalArgumentException("empty record, serializer must return at least one byte");
+        }
+        if (bytes.length > segmentSize - HEADER_SIZE) {
+            throw new IllegalArgumentException("record too large: " + bytes.length + " bytes, segmentSize: " + segmentSize);
+        }
+        synchronized (this) {
+            Segment segment = active;
+            if (segment.writePosition + HEADER_SIZE + bytes.length > segment.size) {
+                segment = roll();
+            }
+            int offset = segment.writePosition;
+            MappedByteBuffer buffer = segment.buffer;
+            buffer.put(offset + 4, STATE_PENDING);
+            buffer.put(offset + 5, spilled ? FLAG_SPILLED : 0);
+            ByteBuffer payload = buffer.duplicate();
+            payload.position(offset + HEADER_SIZE);
+            payload.put(bytes);
+            buffer.putInt(offset, bytes.length);
+            segment.pending.incrementAndGet();
+            segment.dirty = true;
+            segment.writePosition = offset + HEADER_SIZE + bytes.length;
+            if (spilled) {
+                spilledCounter.incrementAndGet();
+            }
+            return position(segment.id, offset);
+        }
+    }
+
+    private Segment roll() {
+        Segment sealed = active;
+        sealed.sealed = true;
+        try {
+            active = newSegment(sealed.id + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException("roll spill log failed: " + dir, e);
+        }
+        if (spilledCounter.get() == 0) {
+            //没有待读回的记录，游标直接跳到新段，之前封存的段确认完即可回收
+            cursorSegmentId = active.id;
+            cursorOffset = 0;
+            for (Segment segment : segments.headMap(active.id).values()) {
+                maybeDelete(segment);
+            }
+        }
+        return active;
+    }
+
+    /**
+     * 把一条已写入的记录标记为溢出
+     *
+     * @return 读回游标已经越过这条记录时返回false，需要调用方重新以溢出方式追加
+     */
+    public synchronized boolean markSpilled(long position) {
+        int segmentId = segmentId(position);
+        int offset = offset(position);
+        if (segmentId < cursorSegmentId || (segmentId == cursorSegmentId && offset < cursorOffset)) {
+            return false;
+        }
+        Segment segment = segments.get(segmentId);
+        segment.buffer.put(offset + 5, FLAG_SPILLED);
+        spilledCounter.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * 确认一条记录，所在段全部确认后可以回收
+     */
+    public void ack(long position) {
+        Segment segment = segments.get(segmentId(position));
+        if (segment == null) {
+            return;
+        }
+        segment.buffer.put(offset(position) + 4, STATE_ACKED);
+        segment.dirty = true;
+        if (segment.pending.decrementAndGet() == 0 && segment.sealed) {
+            synchronized (this) {
+                maybeDelete(segment);
+            }
+        }
+    }
+
+    /**
+     * 读回下一条溢出的记录，恢复出来的段中所有未确认的记录都算溢出
+     *
+     * @return 没有时返回null
+     */
+    public synchronized Record<T> nextSpilled() {
+        while (spilledCounter.get() > 0) {
+            Segment segment = segments.get(cursorSegmentId);
+            if (segment == null) {
+                Map.Entry<Integer, Segment> next = segments.higherEntry(cursorSegmentId);
+                if (next == null) {
+                    return null;
+                }
+                cursorSegmentId = next.getKey();
+                cursorOffset = 0;
+                continue;
+            }
+            if (cursorOffset >= segment.writePosition) {
+                if (!segment.sealed) {
+                    return null;
+                }
+                cursorSegmentId++;
+                cursorOffset = 0;
+                maybeDelete(segment);
+                continue;
+            }
+            int offset = cursorOffset;
+            int length = segment.buffer.getInt(offset);
+            cursorOffset = offset + HEADER_SIZE + length;
+            if (segment.buffer.get(offset + 4) != STATE_PENDING) {
+                continue;
+            }
+            if (!segment.recovered && segment.buffer.get(offset + 5) != FLAG_SPILLED) {
+                continue;
+            }
+            byte[] bytes = new byte[length];
+            ByteBuffer payload = segment.buffer.duplicate();
+            payload.position(offset + HEADER_SIZE);
+            payload.get(bytes);
+            spilledCounter.decrementAndGet();
+            return new Record<>(position(segment.id, offset), serializer.deserialize(bytes));
+        }
+        return null;
+    }
+
+    /**
+     * @return 是否有溢出且未读回的记录
+     */
+    public boolean hasSpilled() {
+        return spilledCounter.get() > 0;
+    }
+
+    public long getSpilledQty() {
+        return spilledCounter.get();
+    }
+
+    public FsyncPolicy getFsyncPolicy() {
+        return fsyncPolicy;
+    }
+
+    /**
+     * @param fsyncInterval PERIODIC时刷盘间隔，单位（毫秒）
+     */
+    public void setFsyncInterval(long fsyncInterval) {
+        this.fsyncInterval = fsyncInterval;
+    }
+
+    public long getFsyncInterval() {
+        return fsyncInterval;
+    }
+
+    /**
+     * 一批处理完成后调用，PER_BATCH时刷盘，同时刷出之前追加的所有记录，见FsyncPolicy.PER_BATCH
+     */
+    public void afterBatch() {
+        if (fsyncPolicy == FsyncPolicy.PER_BATCH) {
+            sync();
+        }
+    }
+
+    /**
+     * 由"轮循线程"定期调用，PERIODIC时按间隔刷盘
+     */
+    public void syncIfDue(long nowNanos) {
+        if (fsyncPolicy == FsyncPolicy.PERIODIC && nowNanos - lastSyncNanos >= TimeUnit.MILLISECONDS.toNanos(fsyncInterval)) {
+            lastSyncNanos = nowNanos;
+            sync();
+        }
+    }
+
+    /**
+     * 把有修改的段刷到磁盘
+     */
+    public void sync() {
+        for (Segment segment : segments.values()) {
+            if (segment.dirty) {
+                segment.dirty = false;
+                segment.buffer.force();
+            }
+        }
+    }
+
+    private void maybeDelete(Segment segment) {
+        if (segment.sealed && segment.pending.get() == 0 && segment.id < cursorSegmentId) {
+            delete(segment);
+        }
+    }
+
+    private void delete(Segment segment) {
+        if (segments.remove(segment.id, segment)) {
+            //映射的内存在buffer被回收时释放，Linux下删除已映射的文件没有问题
+            try {
+                segment.channel.close();
+                Files.deleteIfExists(segment.path);
+            } catch (IOException e) {
+                CallerRunsBatchExecutor.log("delete spill segment failed: " + segment.path + ", " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        sync();
+        for (Segment segment : segments.values()) {
+            segment.channel.close();
+        }
+    }
+
+    private static long position(int segmentId, int offset) {
+        return ((long) segmentId << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    private static int segmentId(long position) {
+        return (int) (position >>> 32);
+    }
+
+    private static int offset(long position) {
+        return (int) position;
+    }
+
+    /**
+     * 序列化
+     */
+    public interface Serializer<T> {
+        /**
+         * @return 至少一个字节，长度0在文件中表示段结尾
+         */
+        byte[] serialize(T item);
+
+        T deserialize(byte[] bytes);
+    }
+
+    /**
+     * 刷盘策略，进程崩溃时映射内存中的数据由操作系统写回，刷盘只影响机器掉电时的丢失范围
+     */
+    public enum FsyncPolicy {
+        /**
+         * 每批处理完成后刷盘。只保证刷盘时已写入的记录落盘，上次刷盘之后追加的记录
+         * （新add、溢出、还在排队没有处理的）要等下一批处理完才刷盘，期间机器掉电或操作系统崩溃会丢失
+         */
+        PER_BATCH,
+        /**
+         * 按fsyncInterval定期刷盘
+         */
+        PERIODIC,
+        /**
+         * 不主动刷盘
+         */
+        NONE
+    }
+
+    /**
+     * 读回的记录
+     */
+    public static class Record<T> {
+        private final long position;
+
+        private final T item;
+
+        Record(long position, T item) {
+            this.position = position;
+            this.item = item;
+        }
+
+        public long getPosition() {
+            return position;
+        }
+
+        public T getItem() {
+            return item;
+        }
+    }
+
+    private static class Segment {
+        private final int id;
+
+        private final Path path;
+
+        private final FileChannel channel;
+
+        private final MappedByteBuffer buffer;
+
+        private final int size;
+
+        /**
+         * 未确认的记录数
+         */
+        private final AtomicInteger pending = new AtomicInteger();
+
+        private volatile int writePosition;
+
+        private volatile boolean sealed;
+
+        private volatile boolean dirty;
+
+        /**
+         * 启动时恢复出来的段
+         */
+        private boolean recovered;
+
+        private Segment(int id, Path path, FileChannel channel, MappedByteBuffer buffer, int size) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.size = size;
+        }
+
+        static Segment open(int id, Path path, int size) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            return new Segment(id, path, channel, buffer, size);
+        }
+    }
+}
@@ -3,8 +3,18 @@ package com.chenz.component.threadpool;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
 
 /**
  *
@@ -16,70 +26,1007 @@ import java.util.stream.Collectors;
  *   "轮循线程"，先执行，再sleep。“业务线程”在add时如果数量超了，"轮循线程"被打断，"轮循线程"立马去执行，但是有可能"轮循线程"执行不过来，需要单独开线程处理。但是“业务线程”其实是空闲的
  * 结论：前提是“业务线程”需要等待响应，使用思路1。
  *      如果“业务线程”不需要响应，使用思路2
+ *
+ * “业务线程”通过add拿到CompletableFuture，所在批次被处理后得到自己那一条的结果
+ *
+ * @param <T> 单条请求
+ * @param <R> 单条响应
  */
-public class CallerRunsBatchExecutor {
+public class CallerRunsBatchExecutor<T, R> {
+
+    private static final int DEFAULT_CAPACITY = 1024;
 
-    private long period = 1000L;
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private static final long SPILL_REFILL_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * 队列满被拒绝，共享实例，不填充堆栈
+     */
+    public static final BatchExecutorAddException QUEUE_FULL =
+            new BatchExecutorAddException("queue is full", null, false, false);
 
-    private int maxQty = 10;
+    /**
+     * 队列满被丢弃，共享实例，不填充堆栈
+     */
+    public static final BatchExecutorAddException DROPPED =
+            new BatchExecutorAddException("dropped by overflow policy", null, false, false);
 
-    //ScheduledExecutorService
-    private final LinkedBlockingQueue<Integer> queue;
+    /**
+     * 等待时间，单位（毫秒）
+     */
+    private volatile long period = 1000L;
+
+    /**
+     * 批次大小
+     */
+    private volatile int maxQty = 10;
+
+    /**
+     * 不为空时，由"轮循线程"定期调整period和maxQty
+     */
+    private volatile AdaptiveBatchTuner tuner;
+
+    private final BatchQueue<BatchItem<T, R>> queue;
+
+    /**
+     * 队列只允许一个消费者，"轮循线程"和“业务线程”取数据时互斥，批处理逻辑不在锁内执行
+     */
+    private final ReentrantLock drainLock = new ReentrantLock();
+
+    private final BatchHandler<T, R> handler;
 
     private final Thread loopTask;
 
-    public CallerRunsBatchExecutor() {
-        queue = new LinkedBlockingQueue<>(1000);
-        loopTask = new Thread(()->{
-            while (true) {
-                try {
-                    Thread.sleep(period);
-                } catch (InterruptedException e) {
-                    continue;
+    /**
+     * 上次处理的时间，“业务线程”处理后"轮循线程"重新计时，不需要打断"轮循线程"
+     */
+    private volatile long lastProcessNanos = System.nanoTime();
+
+    private volatile boolean running = true;
+
+    /**
+     * 为true时批次按取出的顺序逐个处理，批处理逻辑也在drainLock内执行
+     */
+    private volatile boolean ordered;
+
+    /**
+     * 队列满时的处理方式
+     */
+    private volatile OverflowPolicy overflowPolicy = OverflowPolicy.ABORT;
+
+    /**
+     * BLOCK时最多等待的时间，单位（毫秒）
+     */
+    private volatile long offerTimeout = 1000L;
+
+    /**
+     * 为true时"轮循线程"不等period，立即处理
+     */
+    private volatile boolean flushRequested;
+
+    /**
+     * 被丢弃的数量（DROP_OLDEST/DROP_NEWEST）
+     */
+    private final AtomicLong dropCounter = new AtomicLong();
+
+    /**
+     * 被拒绝的数量（ABORT/REJECT/BLOCK超时）
+     */
+    private final AtomicLong rejectCounter = new AtomicLong();
+
+    /**
+     * 落盘日志，为空时只使用内存队列
+     */
+    private volatile BatchSpillLog<T> spillLog;
+
+    /**
+     * 为true时每条数据都先写入spillLog，处理完成后确认
+     */
+    private volatile boolean durable;
+
+    /**
+     * 溢出到spillLog的数据对应的future，key为记录位置，读回时取出；addDetached添加的数据没有future，不登记
+     */
+    private final Map<Long, CompletableFuture<R>> spilledFutures = new HashMap<>();
+
+    /**
+     * 保证溢出记录写入和future登记是原子的，避免"轮循线程"读回时还找不到future
+     */
+    private final Object spillLock = new Object();
+
+    /**
+     * addDetached和启动时恢复的数据共用的future，已经结束，complete等调用不再有作用
+     */
+    private static final CompletableFuture<Object> DETACHED = CompletableFuture.completedFuture(null);
+
+    /**
+     * 已处理的数量
+     */
+    private final AtomicLong handledCounter = new AtomicLong();
+
+    /**
+     * 各触发方式的批次数量，下标为FlushTrigger.ordinal()
+     */
+    private final AtomicLongArray triggerCounters = new AtomicLongArray(FlushTrigger.values().length);
+
+    private final LongHistogram batchSizeHistogram = new LongHistogram();
+
+    /**
+     * 每条数据从add到被取出的时间，单位（纳秒）
+     */
+    private final LongHistogram queueTimeHistogram = new LongHistogram();
+
+    /**
+     * 批处理逻辑耗时，单位（纳秒）
+     */
+    private final LongHistogram handlerTimeHistogram = new LongHistogram();
+
+    private volatile BatchExecutorListener listener;
+
+    /**
+     * 不为空时为流水线模式：取数据和批处理分开，批次交给线程池处理
+     */
+    private volatile FlushPipeline pipeline;
+
+    /**
+     * 合并用的key，为空时不合并
+     */
+    private volatile Function<? super T, ?> coalesceKey;
+
+    private volatile BinaryOperator<T> coalesceMerger;
+
+    /**
+     * 当前窗口内还没被取出的数据，同key的add合并到已有的数据上
+     */
+    private final ConcurrentHashMap<Object, BatchItem<T, R>> coalesceWindow = new ConcurrentHashMap<>();
+
+    /**
+     * 被合并的数量
+     */
+    private final AtomicLong coalesceCounter = new AtomicLong();
+
+    /**
+     * 已从spillLog读出、因队列满还没放回的数据，只有"轮循线程"访问
+     */
+    private BatchItem<T, R> refillPending;
+
+    public CallerRunsBatchExecutor(BatchHandler<T, R> handler) {
+        this(handler, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity 队列容量，向上取整为2的幂
+     */
+    public CallerRunsBatchExecutor(BatchHandler<T, R> handler, int capacity) {
+        this(handler, new MpscRingBatchQueue<>(capacity));
+    }
+
+    public CallerRunsBatchExecutor(BatchHandler<T, R> handler, BatchQueue<BatchItem<T, R>> queue) {
+        this.handler = Objects.requireNonNull(handler, "handler");
+        this.queue = Objects.requireNonNull(queue, "queue");
+        loopTask = new Thread(this::loop, "caller-runs-batch-loop");
+        loopTask.start();
+    }
+
+    private void loop() {
+        while (running) {
+            long now = System.nanoTime();
+            AdaptiveBatchTuner tuner = this.tuner;
+            if (tuner != null && tuner.tuneIfDue(now)) {
+                period = tuner.getCurrentPeriod();
+                maxQty = tuner.getCurrentQty();
+            }
+            BatchSpillLog<T> spillLog = this.spillLog;
+            if (spillLog != null) {
+                refill(spillLog);
+                spillLog.syncIfDue(now);
+            }
+            long waitNanos = lastProcessNanos + TimeUnit.MILLISECONDS.toNanos(period) - now;
+            FlushTrigger trigger = FlushTrigger.TIMER;
+            if (flushRequested || ((spillLog != null || pipeline != null) && queue.size() >= maxQty)) {
+                flushRequested = false;
+                waitNanos = 0;
+                trigger = FlushTrigger.SIZE;
+            }
+            if (waitNanos > 0) {
+                if (tuner != null) {
+                    waitNanos = Math.min(waitNanos, TimeUnit.MILLISECONDS.toNanos(tuner.getTuneInterval()));
                 }
-                log("======= loop task processData ====");
-                processData();
+                if (spillLog != null) {
+                    waitNanos = Math.min(waitNanos, spillLog.hasSpilled() ? SPILL_REFILL_PARK_NANOS
+                            : TimeUnit.MILLISECONDS.toNanos(spillLog.getFsyncInterval()));
+                }
+                LockSupport.parkNanos(this, waitNanos);
+                //清除打断标记，否则park会立即返回
+                Thread.interrupted();
+                continue;
             }
-        });
-        loopTask.start();
+            processData(trigger);
+        }
+        //关闭后处理完剩余数据，包括溢出到spillLog的
+        BatchSpillLog<T> spillLog = this.spillLog;
+        while (!queue.isEmpty() || refillPending != null || (spillLog != null && spillLog.hasSpilled())) {
+            if (spillLog != null) {
+                refill(spillLog);
+            }
+            processData(FlushTrigger.SHUTDOWN);
+        }
+        if (spillLog != null) {
+            spillLog.sync();
+        }
     }
 
-    private void processData() {
+    /**
+     * 把溢出的数据读回队列，直到队列满或没有溢出数据
+     */
+    private void refill(BatchSpillLog<T> spillLog) {
+        while (true) {
+            if (refillPending == null) {
+                BatchSpillLog.Record<T> record;
+                CompletableFuture<R> future;
+                synchronized (spillLock) {
+                    record = spillLog.nextSpilled();
+                    if (record == null) {
+                        return;
+                    }
+                    future = spilledFutures.remove(record.getPosition());
+                }
+                //启动时恢复的和addDetached的数据没有调用方等待
+                BatchItem<T, R> batchItem = new BatchItem<>(record.getItem(), future == null ? detached() : future);
+                batchItem.setLogPosition(record.getPosition());
+                refillPending = batchItem;
+            }
+            if (!queue.offer(refillPending)) {
+                return;
+            }
+            refillPending = null;
+        }
+    }
+
+    /**
+     * 写入spillLog，不放入内存队列
+     */
+    private void spill(BatchSpillLog<T> spillLog, BatchItem<T, R> batchItem) {
+        synchronized (spillLock) {
+            long position = batchItem.getLogPosition();
+            if (position < 0 || !spillLog.markSpilled(position)) {
+                if (position >= 0) {
+                    spillLog.ack(position);
+                }
+                position = spillLog.append(batchItem.getItem(), true);
+                batchItem.setLogPosition(position);
+            }
+            if (batchItem.getFuture() != DETACHED) {
+                spilledFutures.put(position, batchItem.getFuture());
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <R> CompletableFuture<R> detached() {
+        return (CompletableFuture<R>) DETACHED;
+    }
+
+    private void processData(FlushTrigger trigger) {
+        lastProcessNanos = System.nanoTime();
         if(queue.isEmpty()) {
             return;
         }
-        List<Integer> list = new ArrayList<>(maxQty);
-        queue.drainTo(list,maxQty);
+        FlushPipeline pipeline = this.pipeline;
+        if (pipeline != null) {
+            //在途批次达到上限时等待，不再取数据，队列满后由overflowPolicy处理
+            pipeline.inFlight.acquireUninterruptibly();
+        }
+        List<BatchItem<T, R>> list = new ArrayList<>(maxQty);
+        boolean ordered = this.ordered;
+        drainLock.lock();
+        try {
+            queue.drainTo(list, maxQty);
+            onCut(trigger, list);
+            if (pipeline != null) {
+                //在锁内提交，提交顺序和取出顺序一致
+                dispatch(pipeline, list, trigger);
+                return;
+            }
+            if (ordered) {
+                processBatch(list, trigger);
+                return;
+            }
+        } finally {
+            drainLock.unlock();
+        }
+        processBatch(list, trigger);
+    }
+
+    /**
+     * 记录批次大小、触发方式和每条数据在队列中的时间
+     */
+    private void onCut(FlushTrigger trigger, List<BatchItem<T, R>> list) {
+        int size = list.size();
+        if (size == 0) {
+            return;
+        }
+        triggerCounters.incrementAndGet(trigger.ordinal());
+        batchSizeHistogram.record(size);
+        long now = System.nanoTime();
+        for (int i = 0; i < size; i++) {
+            queueTimeHistogram.record(now - list.get(i).enqueueNanos);
+        }
+    }
+
+    private void dispatch(FlushPipeline pipeline, List<BatchItem<T, R>> list, FlushTrigger trigger) {
+        if (list.isEmpty()) {
+            pipeline.inFlight.release();
+            return;
+        }
+        Runnable task = () -> {
+            try {
+                processBatch(list, trigger);
+            } finally {
+                pipeline.inFlight.release();
+            }
+        };
+        try {
+            pipeline.executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            //线程池拒绝时在当前线程处理
+            task.run();
+        }
+    }
+
+    private void processBatch(List<BatchItem<T, R>> list, FlushTrigger trigger) {
         if(list.isEmpty()) {
             return;
         }
-        String remainString = queue.stream().map(Object::toString).collect(Collectors.joining(","));
-        String proccessedString = list.stream().map(Object::toString).collect(Collectors.joining(","));
-        log("======= remain ======" + remainString);
-        log("======= procce ======" + proccessedString);
+        for (BatchItem<T, R> batchItem : list) {
+            closeWindow(batchItem);
+        }
+        long start = System.nanoTime();
+        Throwable error = handle(list);
+        long handlerNanos = System.nanoTime() - start;
+        handledCounter.addAndGet(list.size());
+        handlerTimeHistogram.record(handlerNanos);
+        AdaptiveBatchTuner tuner = this.tuner;
+        if (tuner != null) {
+            tuner.onBatch(handlerNanos);
+        }
+        BatchExecutorListener listener = this.listener;
+        if (listener != null) {
+            try {
+                listener.onFlush(trigger, list.size(), handlerNanos, error);
+            } catch (Throwable t) {
+                log("batch executor listener failed: " + t);
+            }
+        }
+        BatchSpillLog<T> spillLog = this.spillLog;
+        if (spillLog != null) {
+            for (BatchItem<T, R> batchItem : list) {
+                ack(spillLog, batchItem);
+            }
+            spillLog.afterBatch();
+        }
     }
 
     /**
+     * 数据被取出或结束后不再接受合并
+     */
+    private void closeWindow(BatchItem<T, R> batchItem) {
+        Object key = batchItem.coalesceKey;
+        if (key != null) {
+            synchronized (batchItem) {
+                batchItem.drained = true;
+            }
+            coalesceWindow.remove(key, batchItem);
+        }
+    }
+
+    private static void ack(BatchSpillLog<?> spillLog, BatchItem<?, ?> batchItem) {
+        if (batchItem.getLogPosition() >= 0) {
+            spillLog.ack(batchItem.getLogPosition());
+        }
+    }
+
+    /**
+     * 调用批处理逻辑，并把结果按位置分发给每条请求的future
      *
-     * @param i
-     * @throws BatchExecutorAddException 添加失败后，需要单独处理
+     * @return 整批失败的原因，成功时为null
      */
-    public void add(Integer i) throws BatchExecutorAddException {
+    private Throwable handle(List<BatchItem<T, R>> list) {
+        List<T> items = new ArrayList<>(list.size());
+        for (BatchItem<T, R> batchItem : list) {
+            items.add(batchItem.getItem());
+        }
+        List<R> results;
         try {
-            queue.add(i);
-            if(queue.size() >= maxQty) {
-                loopTask.interrupt();
-                log("======= add processData ====");
-                processData();
+            results = handler.handle(items);
+        } catch (Throwable t) {
+            for (BatchItem<T, R> batchItem : list) {
+                batchItem.getFuture().completeExceptionally(t);
             }
-        } catch (Exception e) {
-            /*
-            IllegalStateException–如果由于容量限制，此时无法添加元素
-            ClassCastException–如果指定元素的类阻止将其添加到此队列中
-            NullPointerException–如果指定的元素为null
-            IllegalArgumentException–如果指定元素的某些属性阻止将其添加到此队列中
-             */
-            throw new BatchExecutorAddException("queue.add failed", e);
+            return t;
+        }
+        if (results == null || results.size() != list.size()) {
+            IllegalStateException e = new IllegalStateException("batch handler returned "
+                    + (results == null ? "null" : results.size() + " results") + " for " + list.size() + " items");
+            for (BatchItem<T, R> batchItem : list) {
+                batchItem.getFuture().completeExceptionally(e);
+            }
+            return e;
+        }
+        for (int i = 0; i < list.size(); i++) {
+            list.get(i).getFuture().complete(results.get(i));
+        }
+        return null;
+    }
+
+    /**
+     *
+     * @param item 单条请求
+     * @return 所在批次处理完成后得到结果；批处理逻辑抛出异常时，整批以该异常结束；
+     *         队列满时按overflowPolicy，可能以QUEUE_FULL/DROPPED结束
+     * @throws BatchExecutorAddException 添加失败后，需要单独处理（已关闭、ABORT、BLOCK超时）
+     */
+    public CompletableFuture<R> add(T item) throws BatchExecutorAddException {
+        return add(item, new CompletableFuture<>());
+    }
+
+    /**
+     * 添加数据，不返回结果，适合不关心单条结果的场景
+     * 不创建future，溢出(SPILL)时堆内存只保留日志中的记录，不再为每条数据保留future；
+     * 批处理的异常、QUEUE_FULL/DROPPED等结果不通知调用方，通过BatchExecutorListener和计数观察；
+     * 开启合并时可以合并到已有的数据上，但之后的数据不会合并到它上面
+     *
+     * @throws BatchExecutorAddException 添加失败后，需要单独处理（已关闭、ABORT、BLOCK超时）
+     */
+    public void addDetached(T item) throws BatchExecutorAddException {
+        add(item, detached());
+    }
+
+    private CompletableFuture<R> add(T item, CompletableFuture<R> future) throws BatchExecutorAddException {
+        if (!running) {
+            throw new BatchExecutorAddException("executor is shutdown");
+        }
+        AdaptiveBatchTuner tuner = this.tuner;
+        if (tuner != null) {
+            tuner.onArrival();
+        }
+        BatchItem<T, R> batchItem = new BatchItem<>(item, future);
+        Function<? super T, ?> coalesceKey = this.coalesceKey;
+        if (coalesceKey != null) {
+            Object key = coalesceKey.apply(item);
+            if (key != null) {
+                CompletableFuture<R> merged = coalesce(key, batchItem);
+                if (merged != null) {
+                    return merged;
+                }
+            }
+        }
+        try {
+            BatchSpillLog<T> spillLog = this.spillLog;
+            if (spillLog != null) {
+                if (overflowPolicy == OverflowPolicy.SPILL && spillLog.hasSpilled()) {
+                    //已有溢出数据时继续溢出，不插队
+                    spill(spillLog, batchItem);
+                    return batchItem.getFuture();
+                }
+                if (durable) {
+                    batchItem.setLogPosition(spillLog.append(item, false));
+                }
+            }
+            if (!queue.offer(batchItem) && !offerOverflow(batchItem)) {
+                closeWindow(batchItem);
+                return batchItem.getFuture();
+            }
+        } catch (BatchExecutorAddException | RuntimeException e) {
+            //没有放入队列，移出合并窗口；已经合并进来的调用方以同样的异常结束
+            closeWindow(batchItem);
+            batchItem.getFuture().completeExceptionally(e);
+            throw e;
+        }
+        //已关闭时"轮循线程"可能已经退出，由“业务线程”自己处理
+        if(queue.size() >= maxQty || !running) {
+            if (pipeline != null && running) {
+                //流水线模式下“业务线程”不处理，交给"轮循线程"取数据
+                requestFlush();
+            } else {
+                processData(FlushTrigger.CALLER);
+            }
+        }
+        return batchItem.getFuture();
+    }
+
+    /**
+     * @param period 等待时间，单位（毫秒）
+     */
+    public void setPeriod(long period) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("period: " + period);
+        }
+        this.period = period;
+    }
+
+    public long getPeriod() {
+        return period;
+    }
+
+    public void setMaxQty(int maxQty) {
+        if (maxQty <= 0) {
+            throw new IllegalArgumentException("maxQty: " + maxQty);
+        }
+        this.maxQty = maxQty;
+    }
+
+    public int getMaxQty() {
+        return maxQty;
+    }
+
+    /**
+     * 开启后批次严格按add的顺序逐个处理，同一时刻只有一个线程执行批处理逻辑，
+     * 其他要处理的“业务线程”会等待前一批结束
+     */
+    public void setOrdered(boolean ordered) {
+        this.ordered = ordered;
+    }
+
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    void setLoopTaskName(String name) {
+        loopTask.setName(name);
+    }
+
+    /**
+     * 开启自适应模式，period和maxQty由tuner决定，手动设置的值会被覆盖；传null关闭
+     */
+    public void setAdaptiveTuner(AdaptiveBatchTuner tuner) {
+        this.tuner = tuner;
+        LockSupport.unpark(loopTask);
+    }
+
+    public AdaptiveBatchTuner getAdaptiveTuner() {
+        return tuner;
+    }
+
+    /**
+     * 合并到窗口内同key的数据上，没有时把batchItem登记到窗口
+     *
+     * @return 合并后的结果；登记成功时返回null，由调用方继续放入队列
+     */
+    private CompletableFuture<R> coalesce(Object key, BatchItem<T, R> batchItem) {
+        BinaryOperator<T> merger = coalesceMerger;
+        while (true) {
+            BatchItem<T, R> existing = coalesceWindow.putIfAbsent(key, batchItem);
+            if (existing == null) {
+                batchItem.coalesceKey = key;
+                return null;
+            }
+            synchronized (existing) {
+                if (!existing.drained && !existing.getFuture().isDone()) {
+                    existing.item = merger.apply(existing.item, batchItem.getItem());
+                    coalesceCounter.incrementAndGet();
+                    //不直接返回共享的future，避免调用方complete影响其他调用方
+                    return existing.getFuture().thenApply(Function.identity());
+                }
+            }
+            coalesceWindow.remove(key, existing);
+        }
+    }
+
+    /**
+     * 队列满时按overflowPolicy处理
+     *
+     * @return 是否已放入队列；未放入时batchItem的future已经结束，或已溢出到spillLog
+     */
+    private boolean offerOverflow(BatchItem<T, R> batchItem) throws BatchExecutorAddException {
+        OverflowPolicy overflowPolicy = this.overflowPolicy;
+        BatchSpillLog<T> spillLog = this.spillLog;
+        if (overflowPolicy == OverflowPolicy.SPILL && spillLog == null) {
+            overflowPolicy = OverflowPolicy.ABORT;
+        }
+        switch (overflowPolicy) {
+            case BLOCK:
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(offerTimeout);
+                do {
+                    requestFlush();
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        if (spillLog != null) {
+                            ack(spillLog, batchItem);
+                        }
+                        rejectCounter.incrementAndGet();
+                        throw new BatchExecutorAddException("queue is full, offer timeout: " + offerTimeout + "ms");
+                    }
+                    LockSupport.parkNanos(this, Math.min(remaining, BLOCK_PARK_NANOS));
+                } while (!queue.offer(batchItem));
+                return true;
+            case DROP_OLDEST:
+                do {
+                    BatchItem<T, R> oldest;
+                    drainLock.lock();
+                    try {
+                        oldest = queue.poll();
+                    } finally {
+                        drainLock.unlock();
+                    }
+                    if (oldest != null) {
+                        dropCounter.incrementAndGet();
+                        closeWindow(oldest);
+                        oldest.getFuture().completeExceptionally(DROPPED);
+                        if (spillLog != null) {
+                            ack(spillLog, oldest);
+                        }
+                    }
+                } while (!queue.offer(batchItem));
+                return true;
+            case SPILL:
+                spill(spillLog, batchItem);
+                return false;
+            case DROP_NEWEST:
+                if (spillLog != null) {
+                    ack(spillLog, batchItem);
+                }
+                dropCounter.incrementAndGet();
+                batchItem.getFuture().completeExceptionally(DROPPED);
+                return false;
+            case CALLER_RUNS:
+                do {
+                    processData(FlushTrigger.CALLER);
+                } while (!queue.offer(batchItem));
+                return true;
+            case REJECT:
+                if (spillLog != null) {
+                    ack(spillLog, batchItem);
+                }
+                rejectCounter.incrementAndGet();
+                batchItem.getFuture().completeExceptionally(QUEUE_FULL);
+                return false;
+            case ABORT:
+            default:
+                if (spillLog != null) {
+                    ack(spillLog, batchItem);
+                }
+                rejectCounter.incrementAndGet();
+                //容量限制，此时无法添加元素
+                throw new BatchExecutorAddException("queue is full, capacity: " + queue.capacity());
+        }
+    }
+
+    /**
+     * 让"轮循线程"立即处理一批
+     */
+    private void requestFlush() {
+        if (!flushRequested) {
+            flushRequested = true;
+            LockSupport.unpark(loopTask);
+        }
+    }
+
+    /**
+     * 开启流水线模式："轮循线程"只负责按数量/时间取出批次，批处理逻辑在flushExecutor中执行，
+     * “业务线程”不再处理批次，慢的批处理逻辑不会拖慢add；传null关闭
+     *
+     * @param flushExecutor 执行批处理逻辑的线程池，拒绝时在取数据的线程执行
+     * @param maxInFlight   最多同时在处理（含已提交未执行）的批次数量，达到后暂停取数据
+     * @param ordered       为true时批次按取出的顺序逐个处理，同一时刻只有一个批次在执行
+     */
+    public void setFlushExecutor(Executor flushExecutor, int maxInFlight, boolean ordered) {
+        if (flushExecutor == null) {
+            this.pipeline = null;
+            return;
+        }
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight: " + maxInFlight);
+        }
+        this.pipeline = new FlushPipeline(ordered ? new SerialExecutor(flushExecutor) : flushExecutor, maxInFlight);
+        LockSupport.unpark(loopTask);
+    }
+
+    /**
+     * @return 流水线模式下在途的批次数量
+     */
+    public int getInFlightQty() {
+        FlushPipeline pipeline = this.pipeline;
+        return pipeline == null ? 0 : pipeline.maxInFlight - pipeline.inFlight.availablePermits();
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = Objects.requireNonNull(overflowPolicy, "overflowPolicy");
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * @param offerTimeout BLOCK时最多等待的时间，单位（毫秒）
+     */
+    public void setOfferTimeout(long offerTimeout) {
+        this.offerTimeout = offerTimeout;
+    }
+
+    /**
+     * 使用落盘日志，需要在add之前设置；设置后"轮循线程"会先处理日志中恢复出来的未确认数据
+     *
+     * @param durable 为true时每条数据都先写日志，崩溃后不丢失；为false时只在overflowPolicy为SPILL且队列满时写日志
+     */
+    public void setSpillLog(BatchSpillLog<T> spillLog, boolean durable) {
+        if (spillLog != null && coalesceKey != null) {
+            throw new IllegalStateException("spill log can not be used with coalescing");
+        }
+        this.durable = durable;
+        this.spillLog = spillLog;
+        LockSupport.unpark(loopTask);
+    }
+
+    public BatchSpillLog<T> getSpillLog() {
+        return spillLog;
+    }
+
+    /**
+     * 开启合并：同一窗口内（还没被取出）key相同的数据合并成一条，所有调用方得到合并后这一条的结果；
+     * 传null关闭。不能和spillLog同时使用，日志中的记录无法合并
+     *
+     * @param coalesceKey 合并用的key，返回null的数据不合并
+     * @param merger      (已有的数据, 新数据) -> 合并后的数据
+     */
+    public void setCoalescing(Function<? super T, ?> coalesceKey, BinaryOperator<T> merger) {
+        if (coalesceKey != null && spillLog != null) {
+            throw new IllegalStateException("coalescing can not be used with spill log");
+        }
+        if (coalesceKey != null) {
+            Objects.requireNonNull(merger, "merger");
+        }
+        this.coalesceMerger = merger;
+        this.coalesceKey = coalesceKey;
+    }
+
+    public long getCoalescedQty() {
+        return coalesceCounter.get();
+    }
+
+    /**
+     * 每批处理完成后回调，在执行批处理的线程中调用，需要尽量轻量
+     */
+    public void setListener(BatchExecutorListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 当前的统计数据，各字段分别读取，彼此之间不保证完全一致
+     */
+    public BatchExecutorSnapshot snapshot() {
+        BatchExecutorSnapshot snapshot = new BatchExecutorSnapshot();
+        snapshot.setHandledQty(handledCounter.get());
+        snapshot.setSizeFlushQty(triggerCounters.get(FlushTrigger.SIZE.ordinal()));
+        snapshot.setTimerFlushQty(triggerCounters.get(FlushTrigger.TIMER.ordinal()));
+        snapshot.setCallerFlushQty(triggerCounters.get(FlushTrigger.CALLER.ordinal()));
+        snapshot.setShutdownFlushQty(triggerCounters.get(FlushTrigger.SHUTDOWN.ordinal()));
+        snapshot.setQueueDepth(queue.size());
+        snapshot.setCapacity(queue.capacity());
+        snapshot.setInFlightQty(getInFlightQty());
+        snapshot.setDropQty(dropCounter.get());
+        snapshot.setRejectQty(rejectCounter.get());
+        snapshot.setCoalescedQty(coalesceCounter.get());
+        snapshot.setPeriod(period);
+        snapshot.setMaxQty(maxQty);
+        snapshot.setBatchSize(batchSizeHistogram.snapshot());
+        snapshot.setQueueTime(queueTimeHistogram.snapshot());
+        snapshot.setHandlerTime(handlerTimeHistogram.snapshot());
+        return snapshot;
+    }
+
+    public long getDropQty() {
+        return dropCounter.get();
+    }
+
+    public long getRejectQty() {
+        return rejectCounter.get();
+    }
+
+    public int getCapacity() {
+        return queue.capacity();
+    }
+
+    /**
+     * 不再接收新数据，"轮循线程"处理完剩余数据后退出
+     */
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(loopTask);
+    }
+
+    /**
+     * 队列满时的处理方式
+     */
+    public enum OverflowPolicy {
+        /**
+         * 抛出BatchExecutorAddException，由调用方单独处理
+         */
+        ABORT,
+        /**
+         * 唤醒"轮循线程"处理，最多等待offerTimeout，超时后抛出BatchExecutorAddException
+         */
+        BLOCK,
+        /**
+         * 丢弃队列中最早的一条，被丢弃的future以DROPPED异常结束
+         */
+        DROP_OLDEST,
+        /**
+         * 丢弃本条，返回的future以DROPPED异常结束
+         */
+        DROP_NEWEST,
+        /**
+         * “业务线程”自己处理一批，腾出位置后再放入
+         */
+        CALLER_RUNS,
+        /**
+         * 不抛异常，返回的future以QUEUE_FULL异常结束，异常对象共享且没有堆栈
+         */
+        REJECT,
+        /**
+         * 写入spillLog，队列有空位时由"轮循线程"读回；未设置spillLog时同ABORT
+         */
+        SPILL
+    }
+
+    private static class FlushPipeline {
+        private final Executor executor;
+
+        private final int maxInFlight;
+
+        private final Semaphore inFlight;
+
+        FlushPipeline(Executor executor, int maxInFlight) {
+            this.executor = executor;
+            this.maxInFlight = maxInFlight;
+            this.inFlight = new Semaphore(maxInFlight);
+        }
+    }
+
+    /**
+     * 按提交顺序逐个执行，同一时刻只有一个任务在底层线程池中运行
+     */
+    private static class SerialExecutor implements Executor {
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+        private final Executor executor;
+
+        private Runnable active;
+
+        SerialExecutor(Executor executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public synchronized void execute(Runnable r) {
+            tasks.add(() -> {
+                try {
+                    r.run();
+                } finally {
+                    scheduleNext();
+                }
+            });
+            if (active == null) {
+                scheduleNext();
+            }
+        }
+
+        private synchronized void scheduleNext() {
+            if ((active = tasks.poll()) != null) {
+                try {
+                    executor.execute(active);
+                } catch (RejectedExecutionException e) {
+                    //底层线程池拒绝时在当前线程执行，保持顺序
+                    active.run();
+                }
+            }
+        }
+    }
+
+    /**
+     * 批次的触发方式
+     */
+    public enum FlushTrigger {
+        /**
+         * 数量达到maxQty，由"轮循线程"处理（流水线模式、BLOCK等）
+         */
+        SIZE,
+        /**
+         * 等待时间达到period
+         */
+        TIMER,
+        /**
+         * “业务线程”自己处理（数量达到maxQty或CALLER_RUNS）
+         */
+        CALLER,
+        /**
+         * 关闭时处理剩余数据
+         */
+        SHUTDOWN
+    }
+
+    /**
+     * 批处理逻辑
+     */
+    @FunctionalInterface
+    public interface BatchHandler<T, R> {
+        /**
+         * @param items 本批次的请求，按add的顺序
+         * @return 与items一一对应的结果，数量必须与items相同
+         */
+        List<R> handle(List<T> items) throws Exception;
+
+        /**
+         * 适配按请求查结果的批处理逻辑，例如批量查库后按id组装的Map，缺失的请求得到null
+         */
+        static <T, R> BatchHandler<T, R> ofMap(Function<List<T>, Map<T, R>> mapHandler) {
+            return items -> {
+                Map<T, R> resultMap = mapHandler.apply(items);
+                List<R> results = new ArrayList<>(items.size());
+                for (T item : items) {
+                    results.add(resultMap == null ? null : resultMap.get(item));
+                }
+                return results;
+            };
+        }
+    }
+
+    /**
+     * 队列中的单条请求
+     */
+    public static class BatchItem<T, R> {
+        /**
+         * 合并时在BatchItem的锁内被替换，取出(drained)后不再变化
+         */
+        private T item;
+
+        private final CompletableFuture<R> future;
+
+        /**
+         * 在spillLog中的位置，没有写入时为-1
+         */
+        private long logPosition = -1L;
+
+        /**
+         * 合并用的key，未登记到窗口时为null
+         */
+        private Object coalesceKey;
+
+        /**
+         * 已被取出，不再接受合并
+         */
+        private boolean drained;
+
+        /**
+         * 进入队列的时间，溢出后读回的数据从读回时算起
+         */
+        private final long enqueueNanos = System.nanoTime();
+
+        public BatchItem(T item) {
+            this(item, new CompletableFuture<>());
+        }
+
+        BatchItem(T item, CompletableFuture<R> future) {
+            this.item = item;
+            this.future = future;
+        }
+
+        long getLogPosition() {
+            return logPosition;
+        }
+
+        void setLogPosition(long logPosition) {
+            this.logPosition = logPosition;
+        }
+
+        public T getItem() {
+            return item;
+        }
+
+        public CompletableFuture<R> getFuture() {
+            return future;
         }
     }
 
@@ -113,7 +1060,7 @@ public class CallerRunsBatchExecutor {
     }
 
     public static void main(String[] args) {
-        /*BatchExecutor executor = new BatchExecutor();
+        /*CallerRunsBatchExecutor<Integer, Integer> executor = new CallerRunsBatchExecutor<>(items -> items);
         Random random = new Random();
         for (int i = 0; i < 100; i++) {
             try {
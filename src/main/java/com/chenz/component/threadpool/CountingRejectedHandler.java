@@ -0,0 +1,39 @@
+package com.chenz.component.threadpool;
+
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * 包装拒绝策略，被拒绝时计数（包括CallerRunsPolicy等不抛异常的策略）
+ * DiscardOldestPolicy从队列头部丢弃的任务没有执行，计入移除数量，否则队列深度会一直偏大
+ */
+class CountingRejectedHandler implements RejectedExecutionHandler {
+    private final RejectedExecutionHandler handler;
+
+    private final ExecutorMonitor monitor;
+
+    CountingRejectedHandler(RejectedExecutionHandler handler, ExecutorMonitor monitor) {
+        this.handler = handler;
+        this.monitor = monitor;
+    }
+
+    RejectedExecutionHandler getHandler() {
+        return handler;
+    }
+
+    @Override
+    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+        monitor.onRejected();
+        if (handler.getClass() == ThreadPoolExecutor.DiscardOldestPolicy.class) {
+            //和DiscardOldestPolicy相同，只是记录丢弃了任务
+            if (!executor.isShutdown()) {
+                if (executor.getQueue().poll() != null) {
+                    monitor.onRemoved(1);
+                }
+                executor.execute(r);
+            }
+            return;
+        }
+        handler.rejectedExecution(r, executor);
+    }
+}
@@ -0,0 +1,94 @@
+package com.chenz.component.threadpool;
+
+import com.chenz.component.threadpool.ThreadMonitorExecutor.MonitorRunnable;
+
+import java.util.Comparator;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ThreadMonitorExecutor的工作队列，按截止时间最早优先(EDF)排序
+ * 有截止时间的任务排在没有的前面；截止时间相同或都没有时按优先级，值大的在前；再按入队顺序
+ * 过载时过期任务集中在队头，开始执行时被丢弃，不占用工作线程
+ *
+ * 容量只在offer时检查，并发提交时可能略微超出
+ */
+public class DeadlineTaskQueue extends PriorityBlockingQueue<Runnable> {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private static final Comparator<Runnable> ORDER = (a, b) -> {
+        MonitorRunnable x = (MonitorRunnable) a;
+        MonitorRunnable y = (MonitorRunnable) b;
+        if (x.hasDeadline() != y.hasDeadline()) {
+            return x.hasDeadline() ? -1 : 1;
+        }
+        if (x.hasDeadline()) {
+            long diff = x.getDeadlineNanos() - y.getDeadlineNanos();
+            if (diff != 0) {
+                return diff < 0 ? -1 : 1;
+            }
+        }
+        if (x.getPriority() != y.getPriority()) {
+            return x.getPriority() > y.getPriority() ? -1 : 1;
+        }
+        return Long.compare(x.seq, y.seq);
+    };
+
+    private final AtomicLong seqGenerator = new AtomicLong();
+
+    private final int capacity;
+
+    public DeadlineTaskQueue() {
+        this(Integer.MAX_VALUE);
+    }
+
+    public DeadlineTaskQueue(int capacity) {
+        super(INITIAL_CAPACITY, ORDER);
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity: " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * 只接受MonitorRunnable
+     */
+    @Override
+    public boolean offer(Runnable r) {
+        if (size() >= capacity) {
+            return false;
+        }
+        return enqueue(r);
+    }
+
+    private boolean enqueue(Runnable r) {
+        ((MonitorRunnable) r).seq = seqGenerator.incrementAndGet();
+        return super.offer(r);
+    }
+
+    @Override
+    public boolean offer(Runnable r, long timeout, TimeUnit unit) {
+        return offer(r);
+    }
+
+    /**
+     * 不检查容量
+     */
+    @Override
+    public void put(Runnable r) {
+        enqueue(r);
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return capacity == Integer.MAX_VALUE ? Integer.MAX_VALUE : Math.max(0, capacity - size());
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+}
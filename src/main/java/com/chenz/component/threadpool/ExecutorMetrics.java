@@ -0,0 +1,137 @@
+package com.chenz.component.threadpool;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 监控线程池的指标，JMX和Prometheus共用
+ * 数据来自ExecutorMonitor的计数和无锁直方图，按cacheMillis缓存快照，多次读取不重复计算；
+ * 线程数只读取核心/最大线程数（volatile字段），不调用getActiveCount等需要线程池mainLock的方法
+ */
+public class ExecutorMetrics implements ExecutorMetricsMXBean {
+
+    private static final long DEFAULT_CACHE_MILLIS = 1000L;
+
+    private final String name;
+
+    private final ExecutorMonitor monitor;
+
+    private final ThreadPoolExecutor pool;
+
+    private volatile long cacheMillis = DEFAULT_CACHE_MILLIS;
+
+    private volatile MonitorSnapshot cached;
+
+    private volatile long cachedNanos;
+
+    /**
+     * @param pool 可以为null
+     */
+    public ExecutorMetrics(String name, ExecutorMonitor monitor, ThreadPoolExecutor pool) {
+        this.name = name;
+        this.monitor = monitor;
+        this.pool = pool;
+    }
+
+    /**
+     * @return 缓存的快照，超过cacheMillis时重新生成
+     */
+    public MonitorSnapshot snapshot() {
+        MonitorSnapshot snapshot = cached;
+        long now = System.nanoTime();
+        if (snapshot == null || now - cachedNanos > TimeUnit.MILLISECONDS.toNanos(cacheMillis)) {
+            snapshot = monitor.snapshot();
+            cached = snapshot;
+            cachedNanos = now;
+        }
+        return snapshot;
+    }
+
+    static double toMillis(long nanos) {
+        return nanos / 1_000_000D;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int getCorePoolSize() {
+        return pool == null ? -1 : pool.getCorePoolSize();
+    }
+
+    @Override
+    public int getMaximumPoolSize() {
+        return pool == null ? -1 : pool.getMaximumPoolSize();
+    }
+
+    @Override
+    public long getActiveQty() {
+        return snapshot().getActiveQty();
+    }
+
+    @Override
+    public long getQueueDepth() {
+        return snapshot().getQueueDepth();
+    }
+
+    @Override
+    public long getSubmittedQty() {
+        return snapshot().getSubmittedQty();
+    }
+
+    @Override
+    public long getCompletedQty() {
+        return snapshot().getTotalQty();
+    }
+
+    @Override
+    public long getRejectedQty() {
+        return snapshot().getRejectedQty();
+    }
+
+    @Override
+    public long getExpiredQty() {
+        return snapshot().getExpiredQty();
+    }
+
+    @Override
+    public long getWaitTimeoutQty() {
+        return snapshot().getWaitTimeoutQty();
+    }
+
+    @Override
+    public long getRunTimeoutQty() {
+        return snapshot().getRunTimeoutQty();
+    }
+
+    @Override
+    public double getWaitP50() {
+        return toMillis(snapshot().getWindowWaitTime().getPercentile(50));
+    }
+
+    @Override
+    public double getWaitP99() {
+        return toMillis(snapshot().getWindowWaitTime().getPercentile(99));
+    }
+
+    @Override
+    public double getRunP50() {
+        return toMillis(snapshot().getWindowRunTime().getPercentile(50));
+    }
+
+    @Override
+    public double getRunP99() {
+        return toMillis(snapshot().getWindowRunTime().getPercentile(99));
+    }
+
+    @Override
+    public double getRunP999() {
+        return toMillis(snapshot().getWindowRunTime().getPercentile(99.9));
+    }
+
+    public void setCacheMillis(long cacheMillis) {
+        this.cacheMillis = cacheMillis;
+    }
+}
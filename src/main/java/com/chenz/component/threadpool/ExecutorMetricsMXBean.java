@@ -0,0 +1,45 @@
+package com.chenz.component.threadpool;
+
+/**
+ * 监控线程池的JMX接口，耗时单位（毫秒），分位数取最近时间窗口的数据
+ */
+public interface ExecutorMetricsMXBean {
+
+    String getName();
+
+    /**
+     * @return 不是ThreadPoolExecutor时为-1
+     */
+    int getCorePoolSize();
+
+    /**
+     * @return 不是ThreadPoolExecutor时为-1
+     */
+    int getMaximumPoolSize();
+
+    long getActiveQty();
+
+    long getQueueDepth();
+
+    long getSubmittedQty();
+
+    long getCompletedQty();
+
+    long getRejectedQty();
+
+    long getExpiredQty();
+
+    long getWaitTimeoutQty();
+
+    long getRunTimeoutQty();
+
+    double getWaitP50();
+
+    double getWaitP99();
+
+    double getRunP50();
+
+    double getRunP99();
+
+    double getRunP999();
+}
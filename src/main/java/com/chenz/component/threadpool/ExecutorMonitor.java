@@ -0,0 +1,273 @@
+package com.chenz.component.threadpool;
+
+import com.chenz.component.threadpool.ThreadMonitorExecutor.ThreadPoolLogger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 线程池的监控数据：超时计数、等待/执行耗时的直方图（累计和最近时间窗口），以及每个任务的回调
+ * 任务结束时只更新计数和直方图，不创建对象；logger为空时不回调
+ */
+public class ExecutorMonitor {
+
+    private static final long DEFAULT_WINDOW_MILLIS = 10_000L;
+
+    private static final int DEFAULT_WINDOW_COUNT = 6;
+
+    private static final int WINDOW_STRIPES = 4;
+
+    /**
+     * 执行超时，单位（毫秒）
+     */
+    private volatile long runTimeout = -1;
+
+    /**
+     * 等待超时，单位（毫秒）
+     */
+    private volatile long waitTimeout = -1;
+
+    /**
+     * 执行超时数量
+     */
+    private final AtomicLong runTimeoutCounter = new AtomicLong();
+
+    /**
+     * 等待超时数量
+     */
+    private final AtomicLong waitTimeoutCounter = new AtomicLong();
+
+    private final AtomicLong totalCounter = new AtomicLong();
+
+    /**
+     * 提交的任务数量
+     */
+    private final LongAdder submitCounter = new LongAdder();
+
+    /**
+     * 超过截止时间未执行的任务数量
+     */
+    private final LongAdder expiredCounter = new LongAdder();
+
+    /**
+     * 开始执行的任务数量
+     */
+    private final LongAdder startCounter = new LongAdder();
+
+    /**
+     * 被拒绝的任务数量
+     */
+    private final LongAdder rejectCounter = new LongAdder();
+
+    /**
+     * 排队后没有执行就离开队列的任务数量
+     */
+    private final LongAdder removeCounter = new LongAdder();
+
+    /**
+     * 等待耗时，单位（纳秒），启动以来累计
+     */
+    private final LongHistogram waitHistogram = new LongHistogram();
+
+    /**
+     * 执行耗时，单位（纳秒），启动以来累计
+     */
+    private final LongHistogram runHistogram = new LongHistogram();
+
+    private volatile WindowedHistogram waitWindow = new WindowedHistogram(DEFAULT_WINDOW_MILLIS, DEFAULT_WINDOW_COUNT, WINDOW_STRIPES);
+
+    private volatile WindowedHistogram runWindow = new WindowedHistogram(DEFAULT_WINDOW_MILLIS, DEFAULT_WINDOW_COUNT, WINDOW_STRIPES);
+
+    /**
+     * 每个任务结束时的回调，为空时不回调
+     */
+    private volatile ThreadPoolLogger logger = new ThreadPoolLogger(){};
+
+    /**
+     * 提交任务时调用
+     */
+    public void onSubmit() {
+        submitCounter.increment();
+    }
+
+    /**
+     * 工作线程开始执行任务时调用
+     */
+    public void onStart() {
+        startCounter.increment();
+    }
+
+    /**
+     * 任务被拒绝时调用
+     */
+    public void onRejected() {
+        rejectCounter.increment();
+    }
+
+    /**
+     * 排队中的任务没有开始执行就离开队列时调用，例如被DiscardOldestPolicy丢弃、被remove/purge移除、shutdownNow返回
+     */
+    public void onRemoved(long qty) {
+        removeCounter.add(qty);
+    }
+
+    /**
+     * 任务超过截止时间、没有执行时调用
+     */
+    public void onExpired() {
+        expiredCounter.increment();
+    }
+
+    /**
+     * 任务结束时调用
+     *
+     * @param waitNanos 等待耗时，单位（纳秒）
+     * @param runNanos  执行耗时，单位（纳秒）
+     */
+    public void record(String threadName, long waitNanos, long runNanos, Throwable t) {
+        record(threadName, null, waitNanos, runNanos, t);
+    }
+
+    /**
+     * 任务结束时调用
+     *
+     * @param tag       任务类型，可以为null
+     * @param waitNanos 等待耗时，单位（纳秒）
+     * @param runNanos  执行耗时，单位（纳秒）
+     */
+    public void record(String threadName, String tag, long waitNanos, long runNanos, Throwable t) {
+        long totalQty = totalCounter.incrementAndGet();
+        waitHistogram.record(waitNanos);
+        runHistogram.record(runNanos);
+        waitWindow.record(waitNanos);
+        runWindow.record(runNanos);
+        long waitTimeout = this.waitTimeout;
+        long runTimeout = this.runTimeout;
+        long waitCost = TimeUnit.NANOSECONDS.toMillis(waitNanos);
+        boolean isWaitTimeout = (waitTimeout > 0 && waitCost > waitTimeout);
+        long waitTimeoutQty = isWaitTimeout ? waitTimeoutCounter.incrementAndGet() : waitTimeoutCounter.get();
+        long runCost = TimeUnit.NANOSECONDS.toMillis(runNanos);
+        boolean isRunTimeout = (runTimeout > 0 && runCost > runTimeout);
+        long runTimeoutQty = isRunTimeout ? runTimeoutCounter.incrementAndGet() : runTimeoutCounter.get();
+        ThreadPoolLogger logger = this.logger;
+        if (logger == null) {
+            return;
+        }
+        logger.onTaskFinished(threadName, tag, waitCost, waitTimeout, isWaitTimeout, runCost, runTimeout, isRunTimeout, t,
+                totalQty, waitTimeoutQty, runTimeoutQty);
+    }
+
+    /**
+     * 当前的统计数据，各字段分别读取，彼此之间不保证完全一致
+     */
+    public MonitorSnapshot snapshot() {
+        MonitorSnapshot snapshot = new MonitorSnapshot();
+        snapshot.setTotalQty(totalCounter.get());
+        snapshot.setSubmittedQty(submitCounter.sum());
+        snapshot.setExpiredQty(expiredCounter.sum());
+        snapshot.setRejectedQty(rejectCounter.sum());
+        snapshot.setActiveQty(getActiveQty());
+        snapshot.setQueueDepth(getQueueDepth());
+        snapshot.setWaitTimeoutQty(waitTimeoutCounter.get());
+        snapshot.setRunTimeoutQty(runTimeoutCounter.get());
+        snapshot.setWaitTimeout(waitTimeout);
+        snapshot.setRunTimeout(runTimeout);
+        snapshot.setWaitTime(waitHistogram.snapshot());
+        snapshot.setRunTime(runHistogram.snapshot());
+        WindowedHistogram waitWindow = this.waitWindow;
+        snapshot.setWindowMillis(waitWindow.getSpanMillis());
+        snapshot.setWindowWaitTime(waitWindow.snapshot());
+        snapshot.setWindowRunTime(runWindow.snapshot());
+        return snapshot;
+    }
+
+    /**
+     * 设置滚动窗口，最近 windowMillis * windowCount 的数据，之前窗口的数据会丢弃
+     */
+    public void setWindow(long windowMillis, int windowCount) {
+        this.waitWindow = new WindowedHistogram(windowMillis, windowCount, WINDOW_STRIPES);
+        this.runWindow = new WindowedHistogram(windowMillis, windowCount, WINDOW_STRIPES);
+    }
+
+    /**
+     * @return 启动以来累计的等待耗时，单位（纳秒）
+     */
+    LongHistogram.Snapshot waitTimeSnapshot() {
+        return waitHistogram.snapshot();
+    }
+
+    /**
+     * @return 启动以来累计的执行耗时，单位（纳秒）
+     */
+    LongHistogram.Snapshot runTimeSnapshot() {
+        return runHistogram.snapshot();
+    }
+
+    /**
+     * @return 提交的任务数量
+     */
+    public long getSubmittedQty() {
+        return submitCounter.sum();
+    }
+
+    /**
+     * @return 超过截止时间未执行的任务数量
+     */
+    public long getExpiredQty() {
+        return expiredCounter.sum();
+    }
+
+    /**
+     * @return 被拒绝的任务数量
+     */
+    public long getRejectedQty() {
+        return rejectCounter.sum();
+    }
+
+    /**
+     * 开始执行 - 已结束，由计数推算，不读取线程池和队列（避免它们的锁），并发时为近似值
+     *
+     * @return 正在执行的任务数量
+     */
+    public long getActiveQty() {
+        return Math.max(0L, startCounter.sum() - totalCounter.get() - expiredCounter.sum());
+    }
+
+    /**
+     * 提交 - 拒绝 - 开始执行 - 没有执行就移除，由计数推算，并发时为近似值；
+     * 绕过执行器直接从getQueue()中移除的任务不会计入，这时偏大
+     *
+     * @return 排队中的任务数量
+     */
+    public long getQueueDepth() {
+        return Math.max(0L, submitCounter.sum() - rejectCounter.sum() - startCounter.sum() - removeCounter.sum());
+    }
+
+    public long getRunTimeout() {
+        return runTimeout;
+    }
+
+    public void setRunTimeout(long runTimeout) {
+        this.runTimeout = runTimeout;
+    }
+
+    public long getWaitTimeout() {
+        return waitTimeout;
+    }
+
+    public void setWaitTimeout(long waitTimeout) {
+        this.waitTimeout = waitTimeout;
+    }
+
+    public ThreadPoolLogger getLogger() {
+        return logger;
+    }
+
+    /**
+     * @param logger 为null时不再每个任务回调，只保留计数和直方图
+     */
+    public void setLogger(ThreadPoolLogger logger) {
+        this.logger = logger;
+    }
+}
@@ -0,0 +1,408 @@
+package com.chenz.component.threadpool;
+
+import com.chenz.component.threadpool.ThreadMonitorExecutor.MonitorRunnable;
+import com.chenz.component.threadpool.ThreadMonitorExecutor.ThreadPoolLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 按key分配工作线程的线程池，监控方式和ThreadMonitorExecutor相同
+ *
+ * 每个工作线程有自己的队列，不再共用一个BlockingQueue：
+ *   带key的任务按key的hash固定分配到一个工作线程的MPSC环形队列，同一个key的任务按提交顺序串行执行，不需要额外加锁；
+ *   不带key的任务优先交给空闲的工作线程，放入它的双端队列，开启窃取时空闲的工作线程会从其他线程的队尾取任务
+ * 工作线程没有任务时park，提交任务的线程发现目标线程park时unpark；
+ * 开启窃取时，不带key的任务交给了忙碌的工作线程，再唤醒一个park中的工作线程来窃取，空闲线程不需要定时醒来检查
+ */
+public class KeyAffinityMonitorExecutor extends AbstractExecutorService {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private final ExecutorMonitor monitor = new ExecutorMonitor();
+
+    private final Worker[] workers;
+
+    private final AtomicInteger roundRobin = new AtomicInteger();
+
+    private volatile boolean shutdown;
+
+    /**
+     * shutdownNow后不再执行队列中的任务
+     */
+    private volatile boolean stopped;
+
+    private volatile boolean stealing = true;
+
+    public KeyAffinityMonitorExecutor(int workerQty) {
+        this(workerQty, DEFAULT_CAPACITY, "key-affinity-worker-");
+    }
+
+    /**
+     * @param workerQty  工作线程数量
+     * @param capacity   每个工作线程带key任务的队列容量，满时拒绝
+     * @param namePrefix 线程名称前缀
+     */
+    public KeyAffinityMonitorExecutor(int workerQty, int capacity, String namePrefix) {
+        if (workerQty <= 0) {
+            throw new IllegalArgumentException("workerQty: " + workerQty);
+        }
+        this.workers = new Worker[workerQty];
+        for (int i = 0; i < workerQty; i++) {
+            workers[i] = new Worker(i, capacity);
+        }
+        for (int i = 0; i < workerQty; i++) {
+            Thread thread = new Thread(workers[i], namePrefix + i);
+            thread.setDaemon(false);
+            workers[i].thread = thread;
+        }
+        for (Worker worker : workers) {
+            worker.thread.start();
+        }
+    }
+
+    /**
+     * 提交不带key的任务，不保证顺序
+     */
+    @Override
+    public void execute(Runnable command) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        Worker worker = pickIdle();
+        worker.submitting.incrementAndGet();
+        try {
+            monitor.onSubmit();
+            checkShutdown();
+            worker.unkeyed.offerLast(new MonitorRunnable(command));
+        } finally {
+            worker.submitting.decrementAndGet();
+        }
+        if (worker.parked) {
+            LockSupport.unpark(worker.thread);
+        } else if (stealing) {
+            //入队之后再检查，和工作线程park前先设置parked再窃取一次配合，不会漏掉
+            signalThief(worker);
+        }
+    }
+
+    /**
+     * 唤醒一个park中的其他工作线程，从busy的队列中窃取
+     */
+    private void signalThief(Worker busy) {
+        for (int i = 1; i < workers.length; i++) {
+            Worker worker = workers[(busy.index + i) % workers.length];
+            if (worker.parked) {
+                LockSupport.unpark(worker.thread);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 提交带key的任务，同一个key的任务在同一个工作线程按提交顺序执行
+     *
+     * @throws RejectedExecutionException 已关闭或该工作线程的队列已满
+     */
+    public void execute(Object key, Runnable command) {
+        if (key == null || command == null) {
+            throw new NullPointerException();
+        }
+        Worker worker = workers[indexOf(key)];
+        worker.submitting.incrementAndGet();
+        try {
+            monitor.onSubmit();
+            checkShutdown();
+            if (!worker.keyed.offer(new MonitorRunnable(command))) {
+                monitor.onRejected();
+                throw new RejectedExecutionException("queue of " + worker.thread.getName() + " is full");
+            }
+        } finally {
+            worker.submitting.decrementAndGet();
+        }
+        worker.signal();
+    }
+
+    /**
+     * 和ThreadMonitorExecutor一样，关闭后提交的任务计入拒绝数量
+     */
+    private void checkShutdown() {
+        if (shutdown) {
+            monitor.onRejected();
+            throw new RejectedExecutionException("executor has been shut down");
+        }
+    }
+
+    private int indexOf(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return (h & Integer.MAX_VALUE) % workers.length;
+    }
+
+    /**
+     * 从轮询位置开始找一个park中的工作线程，都在忙时按轮询
+     */
+    private Worker pickIdle() {
+        int start = (roundRobin.getAndIncrement() & Integer.MAX_VALUE) % workers.length;
+        for (int i = 0; i < workers.length; i++) {
+            Worker worker = workers[(start + i) % workers.length];
+            if (worker.parked) {
+                return worker;
+            }
+        }
+        return workers[start];
+    }
+
+    private class Worker implements Runnable {
+        private final int index;
+
+        private final MpscRingBatchQueue<MonitorRunnable> keyed;
+
+        private final ConcurrentLinkedDeque<MonitorRunnable> unkeyed = new ConcurrentLinkedDeque<>();
+
+        /**
+         * 正在向这个工作线程提交的数量，关闭时等提交完成再退出
+         */
+        private final AtomicInteger submitting = new AtomicInteger();
+
+        /**
+         * shutdownNow已取出环形队列中的任务
+         */
+        private final AtomicBoolean drained = new AtomicBoolean();
+
+        private Thread thread;
+
+        private volatile boolean parked;
+
+        Worker(int index, int capacity) {
+            this.index = index;
+            this.keyed = new MpscRingBatchQueue<>(capacity);
+        }
+
+        void signal() {
+            if (parked) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (!stopped) {
+                MonitorRunnable task = next();
+                if (task != null) {
+                    runTask(task);
+                    continue;
+                }
+                parked = true;
+                //park之前再检查一次，和提交线程的signal配合不会漏掉任务
+                task = next();
+                if (task != null) {
+                    parked = false;
+                    runTask(task);
+                    continue;
+                }
+                if (shutdown && submitting.get() == 0 && keyed.isEmpty() && unkeyed.isEmpty()) {
+                    parked = false;
+                    break;
+                }
+                LockSupport.park(this);
+                parked = false;
+            }
+        }
+
+        private MonitorRunnable next() {
+            MonitorRunnable task = keyed.poll();
+            if (task != null) {
+                return task;
+            }
+            task = unkeyed.pollFirst();
+            if (task != null || !stealing) {
+                return task;
+            }
+            for (int i = 1; i < workers.length; i++) {
+                task = workers[(index + i) % workers.length].unkeyed.pollLast();
+                if (task != null) {
+                    return task;
+                }
+            }
+            return null;
+        }
+
+        private void runTask(MonitorRunnable task) {
+            //清除上一个任务留下的中断状态
+            if (!stopped) {
+                Thread.interrupted();
+            }
+            task.markStart();
+            monitor.onStart();
+            Throwable t = null;
+            try {
+                task.run();
+            } catch (Throwable e) {
+                t = e;
+            }
+            long runNanos = System.nanoTime() - task.getStartNanos();
+            monitor.record(task.getThreadName(), task.getTag(), task.getStartNanos() - task.getSubmitNanos(), runNanos, t);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker.thread);
+        }
+    }
+
+    /**
+     * 停止所有工作线程
+     * 带key的任务在单消费者的环形队列中，等工作线程退出（执行中的任务结束）后再取出，
+     * 所以和ThreadPoolExecutor不同，会等待不响应中断的任务。
+     * 在任务中调用时不等待其他工作线程（避免互相等待），只返回当前线程和已退出线程的带key任务
+     *
+     * @return 还没有执行的任务，包括带key和不带key的
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown();
+        stopped = true;
+        List<Runnable> remaining = new ArrayList<>();
+        Worker current = null;
+        for (Worker worker : workers) {
+            worker.thread.interrupt();
+            drainTo(worker.unkeyed, remaining);
+            if (worker.thread == Thread.currentThread()) {
+                current = worker;
+            }
+        }
+        boolean interrupted = false;
+        for (Worker worker : workers) {
+            if (worker != current) {
+                while (current == null && worker.thread.isAlive()) {
+                    try {
+                        worker.thread.join();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (worker.thread.isAlive()) {
+                    continue;
+                }
+            }
+            //环形队列只能有一个消费者，多个线程同时shutdownNow时只有一个取出
+            if (worker.drained.compareAndSet(false, true)) {
+                //checkShutdown之前已经开始的提交完成后，环形队列不会再有新任务
+                while (worker.submitting.get() > 0) {
+                    Thread.yield();
+                }
+                MonitorRunnable task;
+                while ((task = worker.keyed.poll()) != null) {
+                    remaining.add(task.getRunnable());
+                }
+            }
+            drainTo(worker.unkeyed, remaining);
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        monitor.onRemoved(remaining.size());
+        return remaining;
+    }
+
+    private static void drainTo(ConcurrentLinkedDeque<MonitorRunnable> queue, List<Runnable> remaining) {
+        MonitorRunnable task;
+        while ((task = queue.pollFirst()) != null) {
+            remaining.add(task.getRunnable());
+        }
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        if (!shutdown) {
+            return false;
+        }
+        for (Worker worker : workers) {
+            if (worker.thread.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Worker worker : workers) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return isTerminated();
+            }
+            TimeUnit.NANOSECONDS.timedJoin(worker.thread, remaining);
+        }
+        return isTerminated();
+    }
+
+    public void setRunTimeout(long runTimeout) {
+        monitor.setRunTimeout(runTimeout);
+    }
+
+    public void setWaitTimeout(long waitTimeout) {
+        monitor.setWaitTimeout(waitTimeout);
+    }
+
+    /**
+     * @param logger 为null时不再每个任务回调，只保留计数和直方图
+     */
+    public void setLogger(ThreadPoolLogger logger) {
+        monitor.setLogger(logger);
+    }
+
+    /**
+     * @param stealing 空闲的工作线程是否从其他线程窃取不带key的任务，默认true
+     */
+    public void setStealing(boolean stealing) {
+        this.stealing = stealing;
+    }
+
+    public boolean isStealing() {
+        return stealing;
+    }
+
+    public int getWorkerQty() {
+        return workers.length;
+    }
+
+    /**
+     * @return 各工作线程排队的任务数量（近似值）
+     */
+    public int[] getQueueSizes() {
+        int[] sizes = new int[workers.length];
+        for (int i = 0; i < workers.length; i++) {
+            sizes[i] = workers[i].keyed.size() + workers[i].unkeyed.size();
+        }
+        return sizes;
+    }
+
+    public ExecutorMonitor getMonitor() {
+        return monitor;
+    }
+
+    /**
+     * 等待/执行耗时的分位数（累计和最近时间窗口）和超时计数
+     */
+    public MonitorSnapshot snapshot() {
+        return monitor.snapshot();
+    }
+}
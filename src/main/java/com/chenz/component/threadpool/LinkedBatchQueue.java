@@ -0,0 +1,49 @@
+package com.chenz.component.threadpool;
+
+import java.util.Collection;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * 基于LinkedBlockingQueue的批处理队列，每个元素一个链表节点，读写各一把锁
+ */
+public class LinkedBatchQueue<E> implements BatchQueue<E> {
+
+    private final LinkedBlockingQueue<E> queue;
+
+    private final int capacity;
+
+    public LinkedBatchQueue(int capacity) {
+        this.queue = new LinkedBlockingQueue<>(capacity);
+        this.capacity = capacity;
+    }
+
+    @Override
+    public boolean offer(E e) {
+        return queue.offer(e);
+    }
+
+    @Override
+    public E poll() {
+        return queue.poll();
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        return queue.drainTo(c, maxElements);
+    }
+
+    @Override
+    public int size() {
+        return queue.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+}
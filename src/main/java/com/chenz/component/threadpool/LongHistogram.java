@@ -0,0 +1,221 @@
+package com.chenz.component.threadpool;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 固定内存、无锁的直方图，记录非负long值（耗时、数量等）
+ *
+ * 桶按对数划分（类似HdrHistogram）：小于16的值每个值一个桶，之后每个2的幂区间再等分为8个子桶，
+ * 相对误差不超过12.5%，全部long范围共488个桶。
+ * 按线程分条(stripe)记录，多个线程同时记录时不争用同一组计数，快照时再合并。
+ */
+public class LongHistogram {
+
+    private static final int LINEAR_BITS = 4;
+
+    private static final int LINEAR_SIZE = 1 << LINEAR_BITS;
+
+    private static final int SUB_BITS = 3;
+
+    private static final int SUB_SIZE = 1 << SUB_BITS;
+
+    static final int BUCKET_SIZE = LINEAR_SIZE + (63 - LINEAR_BITS) * SUB_SIZE;
+
+    private static final int DEFAULT_STRIPES = Math.min(8, MpscRingBatchQueue.roundToPowerOfTwo(Runtime.getRuntime().availableProcessors()));
+
+    private final Stripe[] stripes;
+
+    private final int mask;
+
+    public LongHistogram() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripes 分条数量，向上取整为2的幂
+     */
+    public LongHistogram(int stripes) {
+        if (stripes <= 0) {
+            throw new IllegalArgumentException("stripes: " + stripes);
+        }
+        int size = MpscRingBatchQueue.roundToPowerOfTwo(stripes);
+        this.stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.mask = size - 1;
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        Stripe stripe = stripes[(int) Thread.currentThread().getId() & mask];
+        stripe.counts.incrementAndGet(bucketIndex(value));
+        stripe.sum.addAndGet(value);
+        AtomicLong max = stripe.max;
+        long currentMax;
+        while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+            //重试
+        }
+    }
+
+    /**
+     * 清空，和record并发时可能丢失少量记录
+     */
+    public void reset() {
+        for (Stripe stripe : stripes) {
+            for (int i = 0; i < BUCKET_SIZE; i++) {
+                stripe.counts.lazySet(i, 0L);
+            }
+            stripe.sum.set(0L);
+            stripe.max.set(0L);
+        }
+    }
+
+    static int bucketIndex(long value) {
+        if (value < LINEAR_SIZE) {
+            return (int) value;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_SIZE - 1);
+        return LINEAR_SIZE + (exp - LINEAR_BITS) * SUB_SIZE + sub;
+    }
+
+    /**
+     * @return 桶内的最大值
+     */
+    static long bucketUpperBound(int index) {
+        if (index < LINEAR_SIZE) {
+            return index;
+        }
+        int exp = (index - LINEAR_SIZE) / SUB_SIZE + LINEAR_BITS;
+        long sub = (index - LINEAR_SIZE) % SUB_SIZE;
+        long lower = (SUB_SIZE | sub) << (exp - SUB_BITS);
+        long width = 1L << (exp - SUB_BITS);
+        long upper = lower + width - 1;
+        return upper < 0 ? Long.MAX_VALUE : upper;
+    }
+
+    /**
+     * 复制当前的数据，记录期间复制时各字段之间可能不完全一致
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKET_SIZE];
+        long count = 0;
+        long sum = 0;
+        long max = 0;
+        for (Stripe stripe : stripes) {
+            for (int i = 0; i < BUCKET_SIZE; i++) {
+                long c = stripe.counts.get(i);
+                copy[i] += c;
+                count += c;
+            }
+            sum += stripe.sum.get();
+            max = Math.max(max, stripe.max.get());
+        }
+        return new Snapshot(copy, count, sum, max);
+    }
+
+    private static class Stripe {
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKET_SIZE);
+
+        private final AtomicLong sum = new AtomicLong();
+
+        private final AtomicLong max = new AtomicLong();
+    }
+
+    /**
+     * 直方图快照，不可变
+     */
+    public static class Snapshot {
+
+        public static final Snapshot EMPTY = new Snapshot(new long[BUCKET_SIZE], 0, 0, 0);
+
+        private final long[] counts;
+
+        private final long count;
+
+        private final long sum;
+
+        private final long max;
+
+        Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * 合并两个快照，用于汇总多个时间窗口
+         */
+        public Snapshot merge(Snapshot other) {
+            long[] merged = new long[BUCKET_SIZE];
+            for (int i = 0; i < BUCKET_SIZE; i++) {
+                merged[i] = counts[i] + other.counts[i];
+            }
+            return new Snapshot(merged, count + other.count, sum + other.sum, Math.max(max, other.max));
+        }
+
+        /**
+         * 两次累计快照的差，即期间新增的数据；max无法相减，沿用当前快照的max
+         *
+         * @param earlier 较早的快照
+         */
+        public Snapshot subtract(Snapshot earlier) {
+            long[] delta = new long[BUCKET_SIZE];
+            long deltaCount = 0;
+            for (int i = 0; i < BUCKET_SIZE; i++) {
+                delta[i] = Math.max(0L, counts[i] - earlier.counts[i]);
+                deltaCount += delta[i];
+            }
+            return new Snapshot(delta, deltaCount, Math.max(0L, sum - earlier.sum), max);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0D : (double) sum / count;
+        }
+
+        /**
+         * @param percentile 0~100，例如99.9
+         * @return 所在桶的最大值，不超过记录到的最大值
+         */
+        public long getPercentile(double percentile) {
+            if (count == 0) {
+                return 0L;
+            }
+            long rank = (long) Math.ceil(count * Math.min(100D, Math.max(0D, percentile)) / 100D);
+            if (rank < 1) {
+                rank = 1;
+            }
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(bucketUpperBound(i), max);
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count + ", mean=" + (long) getMean() + ", p50=" + getPercentile(50) + ", p99=" + getPercentile(99)
+                    + ", p999=" + getPercentile(99.9) + ", max=" + max;
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package com.chenz.component.threadpool;
+
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * 注册线程池和批处理执行器的MBean，可选启动一个HTTP端点输出Prometheus文本格式的指标
+ * 输出时只读取各指标缓存的快照（计数和无锁直方图），不会占用任务执行路径上的锁
+ */
+public class MetricsExporter {
+
+    private static final String DOMAIN = "com.chenz.component";
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final MBeanServer mBeanServer;
+
+    private final Map<String, ExecutorMetrics> executors = new ConcurrentHashMap<>();
+
+    private final Map<String, BatchExecutorMetrics> batchExecutors = new ConcurrentHashMap<>();
+
+    private HttpServer httpServer;
+
+    private ExecutorService httpExecutor;
+
+    public MetricsExporter() {
+        this(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    public MetricsExporter(MBeanServer mBeanServer) {
+        this.mBeanServer = mBeanServer;
+    }
+
+    public ExecutorMetrics register(String name, ThreadMonitorExecutor executor) {
+        return register(name, executor.getMonitor(), executor);
+    }
+
+    public ExecutorMetrics register(String name, ScheduledThreadMonitorExecutor executor) {
+        return register(name, executor.getMonitor(), executor);
+    }
+
+    public ExecutorMetrics register(String name, KeyAffinityMonitorExecutor executor) {
+        return register(name, executor.getMonitor(), null);
+    }
+
+    /**
+     * @param pool 可以为null，此时不输出线程数
+     */
+    public ExecutorMetrics register(String name, ExecutorMonitor monitor, ThreadPoolExecutor pool) {
+        ExecutorMetrics metrics = new ExecutorMetrics(name, monitor, pool);
+        registerMBean(objectName("ThreadPool", name), metrics);
+        executors.put(name, metrics);
+        return metrics;
+    }
+
+    public BatchExecutorMetrics register(String name, CallerRunsBatchExecutor<?, ?> executor) {
+        BatchExecutorMetrics metrics = new BatchExecutorMetrics(name, executor);
+        registerMBean(objectName("BatchExecutor", name), metrics);
+        batchExecutors.put(name, metrics);
+        return metrics;
+    }
+
+    public void unregister(String name) {
+        if (executors.remove(name) != null) {
+            unregisterMBean(objectName("ThreadPool", name));
+        }
+        if (batchExecutors.remove(name) != null) {
+            unregisterMBean(objectName("BatchExecutor", name));
+        }
+    }
+
+    private static ObjectName objectName(String type, String name) {
+        try {
+            return new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+        } catch (JMException e) {
+            throw new IllegalArgumentException("invalid name: " + name, e);
+        }
+    }
+
+    private void registerMBean(ObjectName objectName, Object mBean) {
+        try {
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+            mBeanServer.registerMBean(mBean, objectName);
+        } catch (JMException e) {
+            throw new IllegalStateException("register mbean failed: " + objectName, e);
+        }
+    }
+
+    private void unregisterMBean(ObjectName objectName) {
+        try {
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("unregister mbean failed: " + objectName, e);
+        }
+    }
+
+    /**
+     * 启动HTTP端点，GET /metrics 返回Prometheus文本格式
+     * 端点没有认证，只监听本机回环地址；需要对外暴露时使用startHttpServer(InetSocketAddress)
+     *
+     * @param port 0表示随机端口，实际端口见返回值
+     * @return 监听的端口
+     */
+    public int startHttpServer(int port) throws IOException {
+        return startHttpServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * 在指定地址启动HTTP端点，例如new InetSocketAddress(port)监听所有网卡，调用方自行控制访问
+     *
+     * @return 监听的端口
+     */
+    public synchronized int startHttpServer(InetSocketAddress address) throws IOException {
+        stopHttpServer();
+        HttpServer server = HttpServer.create(address, 0);
+        server.createContext("/metrics", exchange -> {
+            try {
+                byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            } finally {
+                exchange.close();
+            }
+        });
+        httpExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-http");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(httpExecutor);
+        server.start();
+        httpServer = server;
+        return server.getAddress().getPort();
+    }
+
+    public synchronized void stopHttpServer() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+            httpExecutor.shutdownNow();
+            httpServer = null;
+            httpExecutor = null;
+        }
+    }
+
+    /**
+     * @return 所有已注册执行器的Prometheus文本格式指标，耗时单位（秒）
+     */
+    public String scrape() {
+        StringBuilder sb = new StringBuilder(4096);
+        Map<String, ExecutorMetrics> sorted = new TreeMap<>(executors);
+        Map<String, MonitorSnapshot> pools = new TreeMap<>();
+        for (Map.Entry<String, ExecutorMetrics> entry : sorted.entrySet()) {
+            pools.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        if (!pools.isEmpty()) {
+            writePoolSizes(sb, sorted);
+            gauge(sb, "threadpool_active", "Tasks currently running", pools, MonitorSnapshot::getActiveQty);
+            gauge(sb, "threadpool_queue_depth", "Tasks waiting in the queue", pools, MonitorSnapshot::getQueueDepth);
+            counter(sb, "threadpool_submitted_total", "Submitted tasks", pools, MonitorSnapshot::getSubmittedQty);
+            counter(sb, "threadpool_completed_total", "Completed tasks", pools, MonitorSnapshot::getTotalQty);
+            counter(sb, "threadpool_rejected_total", "Rejected tasks", pools, MonitorSnapshot::getRejectedQty);
+            counter(sb, "threadpool_expired_total", "Tasks dropped after their deadline", pools, MonitorSnapshot::getExpiredQty);
+            counter(sb, "threadpool_wait_timeout_total", "Tasks that waited longer than waitTimeout", pools, MonitorSnapshot::getWaitTimeoutQty);
+            counter(sb, "threadpool_run_timeout_total", "Tasks that ran longer than runTimeout", pools, MonitorSnapshot::getRunTimeoutQty);
+            summary(sb, "threadpool_wait_seconds", "Queue wait time, quantiles over the recent window", "pool", pools,
+                    MonitorSnapshot::getWindowWaitTime, MonitorSnapshot::getWaitTime);
+            summary(sb, "threadpool_run_seconds", "Run time, quantiles over the recent window", "pool", pools,
+                    MonitorSnapshot::getWindowRunTime, MonitorSnapshot::getRunTime);
+        }
+
+        Map<String, BatchExecutorSnapshot> batches = new TreeMap<>();
+        for (Map.Entry<String, BatchExecutorMetrics> entry : batchExecutors.entrySet()) {
+            batches.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        if (!batches.isEmpty()) {
+            gauge(sb, "batch_queue_depth", "Items waiting in the queue", batches, BatchExecutorSnapshot::getQueueDepth);
+            gauge(sb, "batch_in_flight", "Batches being handled in pipelined mode", batches, BatchExecutorSnapshot::getInFlightQty);
+            counter(sb, "batch_handled_total", "Handled items", batches, BatchExecutorSnapshot::getHandledQty);
+            counter(sb, "batch_dropped_total", "Dropped items", batches, BatchExecutorSnapshot::getDropQty);
+            counter(sb, "batch_rejected_total", "Rejected items", batches, BatchExecutorSnapshot::getRejectQty);
+            counter(sb, "batch_coalesced_total", "Items merged into another item", batches, BatchExecutorSnapshot::getCoalescedQty);
+            sb.append("# HELP batch_flush_total Flushed batches by trigger\n# TYPE batch_flush_total counter\n");
+            for (Map.Entry<String, BatchExecutorSnapshot> entry : batches.entrySet()) {
+                BatchExecutorSnapshot snapshot = entry.getValue();
+                flushSample(sb, entry.getKey(), "size", snapshot.getSizeFlushQty());
+                flushSample(sb, entry.getKey(), "timer", snapshot.getTimerFlushQty());
+                flushSample(sb, entry.getKey(), "caller", snapshot.getCallerFlushQty());
+                flushSample(sb, entry.getKey(), "shutdown", snapshot.getShutdownFlushQty());
+            }
+            summary(sb, "batch_queue_seconds", "Time items spend in the queue", "executor", batches,
+                    BatchExecutorSnapshot::getQueueTime, BatchExecutorSnapshot::getQueueTime);
+            summary(sb, "batch_handler_seconds", "Batch handler time", "executor", batches,
+                    BatchExecutorSnapshot::getHandlerTime, BatchExecutorSnapshot::getHandlerTime);
+        }
+        return sb.toString();
+    }
+
+    private static void writePoolSizes(StringBuilder sb, Map<String, ExecutorMetrics> executors) {
+        sb.append("# HELP threadpool_core_size Core pool size\n# TYPE threadpool_core_size gauge\n");
+        for (Map.Entry<String, ExecutorMetrics> entry : executors.entrySet()) {
+            int core = entry.getValue().getCorePoolSize();
+            if (core >= 0) {
+                sample(sb, "threadpool_core_size", "pool", entry.getKey(), null, core);
+            }
+        }
+        sb.append("# HELP threadpool_max_size Maximum pool size\n# TYPE threadpool_max_size gauge\n");
+        for (Map.Entry<String, ExecutorMetrics> entry : executors.entrySet()) {
+            int max = entry.getValue().getMaximumPoolSize();
+            if (max >= 0) {
+                sample(sb, "threadpool_max_size", "pool", entry.getKey(), null, max);
+            }
+        }
+    }
+
+    private static void flushSample(StringBuilder sb, String executor, String trigger, long value) {
+        sb.append("batch_flush_total{executor=\"").append(escape(executor)).append("\",trigger=\"").append(trigger)
+                .append("\"} ").append(value).append('\n');
+    }
+
+    private static <S> void gauge(StringBuilder sb, String name, String help, Map<String, S> snapshots, ToDoubleFunction<S> value) {
+        family(sb, name, help, "gauge", snapshots, value);
+    }
+
+    private static <S> void counter(StringBuilder sb, String name, String help, Map<String, S> snapshots, ToDoubleFunction<S> value) {
+        family(sb, name, help, "counter", snapshots, value);
+    }
+
+    private static <S> void family(StringBuilder sb, String name, String help, String type, Map<String, S> snapshots,
+                                   ToDoubleFunction<S> value) {
+        String label = name.startsWith("batch_") ? "executor" : "pool";
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        for (Map.Entry<String, S> entry : snapshots.entrySet()) {
+            sample(sb, name, label, entry.getKey(), null, value.applyAsDouble(entry.getValue()));
+        }
+    }
+
+    /**
+     * @param window     计算分位数的直方图
+     * @param cumulative 计算_sum、_count的累计直方图
+     */
+    private static <S> void summary(StringBuilder sb, String name, String help, String label, Map<String, S> snapshots,
+                                    Function<S, LongHistogram.Snapshot> window,
+                                    Function<S, LongHistogram.Snapshot> cumulative) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" summary\n");
+        for (Map.Entry<String, S> entry : snapshots.entrySet()) {
+            LongHistogram.Snapshot quantiles = window.apply(entry.getValue());
+            LongHistogram.Snapshot total = cumulative.apply(entry.getValue());
+            sample(sb, name, label, entry.getKey(), "0.5", quantiles.getPercentile(50) / 1e9D);
+            sample(sb, name, label, entry.getKey(), "0.99", quantiles.getPercentile(99) / 1e9D);
+            sample(sb, name, label, entry.getKey(), "0.999", quantiles.getPercentile(99.9) / 1e9D);
+            sample(sb, name + "_sum", label, entry.getKey(), null, total.getSum() / 1e9D);
+            sample(sb, name + "_count", label, entry.getKey(), null, total.getCount());
+        }
+    }
+
+    private static void sample(StringBuilder sb, String name, String label, String labelValue, String quantile, double value) {
+        sb.append(name).append('{').append(label).append("=\"").append(escape(labelValue)).append('"');
+        if (quantile != null) {
+            sb.append(",quantile=\"").append(quantile).append('"');
+        }
+        sb.append("} ");
+        if (value == (long) value) {
+            sb.append((long) value);
+        } else {
+            sb.append(value);
+        }
+        sb.append('\n');
+    }
+
+    private static String escape(String value) {
+        if (value.indexOf('\\') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,60 @@
+package com.chenz.component.threadpool;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 线程池监控的统计快照，耗时单位（纳秒）
+ */
+@Getter
+@Setter
+public class MonitorSnapshot {
+    private long totalQty;
+    /**
+     * 提交的任务数量
+     */
+    private long submittedQty;
+    /**
+     * 超过截止时间未执行的任务数量，不计入totalQty
+     */
+    private long expiredQty;
+    private long rejectedQty;
+    /**
+     * 正在执行的任务数量，由计数推算的近似值
+     */
+    private long activeQty;
+    /**
+     * 排队中的任务数量，由计数推算的近似值
+     */
+    private long queueDepth;
+    private long waitTimeoutQty;
+    private long runTimeoutQty;
+    /**
+     * 等待超时，单位（毫秒）
+     */
+    private long waitTimeout;
+    /**
+     * 执行超时，单位（毫秒）
+     */
+    private long runTimeout;
+    /**
+     * 启动以来累计的等待耗时
+     */
+    private LongHistogram.Snapshot waitTime;
+    /**
+     * 启动以来累计的执行耗时
+     */
+    private LongHistogram.Snapshot runTime;
+    /**
+     * 滚动窗口覆盖的时间，单位（毫秒）
+     */
+    private long windowMillis;
+    /**
+     * 最近windowMillis内的等待耗时
+     */
+    private LongHistogram.Snapshot windowWaitTime;
+    /**
+     * 最近windowMillis内的执行耗时
+     */
+    private LongHistogram.Snapshot windowRunTime;
+}
@@ -0,0 +1,174 @@
+package com.chenz.component.threadpool;
+
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 多生产者/单消费者的环形队列
+ * 槽位预先分配，容量向上取整为2的幂，offer时只CAS生产者序号，不创建节点。
+ * 生产者序号、消费者序号各自前后填充，避免和其他字段落在同一缓存行上（伪共享）。
+ *
+ * 消费者（poll/drainTo）同一时刻只能有一个线程
+ *
+ * @param <E> 元素
+ */
+public class MpscRingBatchQueue<E> extends MpscRingPad2 implements BatchQueue<E> {
+
+    private final AtomicReferenceArray<E> buffer;
+
+    private final int mask;
+
+    private final int capacity;
+
+    public MpscRingBatchQueue(int capacity) {
+        if (capacity <= 0 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("capacity: " + capacity);
+        }
+        this.capacity = roundToPowerOfTwo(capacity);
+        this.mask = this.capacity - 1;
+        this.buffer = new AtomicReferenceArray<>(this.capacity);
+        this.producerLimit = this.capacity;
+    }
+
+    static int roundToPowerOfTwo(int value) {
+        return 1 << (32 - Integer.numberOfLeadingZeros(value - 1));
+    }
+
+    @Override
+    public boolean offer(E e) {
+        Objects.requireNonNull(e);
+        long limit = producerLimit;
+        long pIndex;
+        do {
+            pIndex = producerIndex;
+            if (pIndex >= limit) {
+                //缓存的上限用完了，才去读消费者序号
+                limit = consumerIndex + capacity;
+                if (pIndex >= limit) {
+                    return false;
+                }
+                producerLimit = limit;
+            }
+        } while (!casProducerIndex(pIndex, pIndex + 1));
+        buffer.lazySet((int) pIndex & mask, e);
+        return true;
+    }
+
+    @Override
+    public E poll() {
+        long cIndex = consumerIndex;
+        int offset = (int) cIndex & mask;
+        E e = buffer.get(offset);
+        if (e == null) {
+            if (cIndex == producerIndex) {
+                return null;
+            }
+            //序号已被生产者占用，元素还没写入，等一下
+            do {
+                e = buffer.get(offset);
+            } while (e == null);
+        }
+        buffer.lazySet(offset, null);
+        soConsumerIndex(cIndex + 1);
+        return e;
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        long cIndex = consumerIndex;
+        int count = 0;
+        while (count < maxElements) {
+            int offset = (int) cIndex & mask;
+            E e = buffer.get(offset);
+            if (e == null) {
+                //为空或生产者尚未写入，留给下一次
+                break;
+            }
+            buffer.lazySet(offset, null);
+            cIndex++;
+            soConsumerIndex(cIndex);
+            c.add(e);
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public int size() {
+        long after = consumerIndex;
+        long size;
+        while (true) {
+            long before = after;
+            long pIndex = producerIndex;
+            after = consumerIndex;
+            if (before == after) {
+                size = pIndex - after;
+                break;
+            }
+        }
+        if (size < 0) {
+            return 0;
+        }
+        return size > capacity ? capacity : (int) size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return consumerIndex == producerIndex;
+    }
+
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+}
+
+abstract class MpscRingPad0 {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p10, p11, p12, p13, p14, p15, p16;
+}
+
+abstract class MpscRingProducerFields extends MpscRingPad0 {
+    private static final AtomicLongFieldUpdater<MpscRingProducerFields> P_INDEX =
+            AtomicLongFieldUpdater.newUpdater(MpscRingProducerFields.class, "producerIndex");
+
+    /**
+     * 下一个要写入的序号
+     */
+    protected volatile long producerIndex;
+
+    /**
+     * 生产者序号的上限缓存，减少对消费者序号的读取
+     */
+    protected volatile long producerLimit;
+
+    final boolean casProducerIndex(long expect, long update) {
+        return P_INDEX.compareAndSet(this, expect, update);
+    }
+}
+
+abstract class MpscRingPad1 extends MpscRingProducerFields {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p10, p11, p12, p13, p14, p15, p16;
+}
+
+abstract class MpscRingConsumerFields extends MpscRingPad1 {
+    private static final AtomicLongFieldUpdater<MpscRingConsumerFields> C_INDEX =
+            AtomicLongFieldUpdater.newUpdater(MpscRingConsumerFields.class, "consumerIndex");
+
+    /**
+     * 下一个要读取的序号，只有消费者写
+     */
+    protected volatile long consumerIndex;
+
+    final void soConsumerIndex(long value) {
+        C_INDEX.lazySet(this, value);
+    }
+}
+
+abstract class MpscRingPad2 extends MpscRingConsumerFields {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p10, p11, p12, p13, p14, p15, p16;
+}
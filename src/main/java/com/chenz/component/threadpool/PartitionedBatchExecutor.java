@@ -0,0 +1,130 @@
+package com.chenz.component.threadpool;
+
+import com.chenz.component.threadpool.CallerRunsBatchExecutor.BatchExecutorAddException;
+import com.chenz.component.threadpool.CallerRunsBatchExecutor.BatchHandler;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 按key分区的批量处理
+ * 每个分区是一个独立的CallerRunsBatchExecutor，有自己的队列、"轮循线程"、数量和时间触发，分区之间并行处理。
+ * 同一个key总是落到同一个分区，分区内批次按顺序逐个处理，所以同一个key的请求按add的顺序被处理；
+ * 不同key不会因为某个慢批次互相阻塞（除非落在同一个分区）。
+ *
+ * handler会被多个分区并发调用，需要线程安全
+ *
+ * @param <K> 分区key
+ * @param <T> 单条请求
+ * @param <R> 单条响应
+ */
+public class PartitionedBatchExecutor<K, T, R> {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private final Function<? super T, ? extends K> keyFunction;
+
+    private final CallerRunsBatchExecutor<T, R>[] partitions;
+
+    private final int mask;
+
+    public PartitionedBatchExecutor(BatchHandler<T, R> handler, Function<? super T, ? extends K> keyFunction) {
+        this(handler, keyFunction, Runtime.getRuntime().availableProcessors(), DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param partitionQty 分区数量，向上取整为2的幂
+     * @param capacity     每个分区的队列容量
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public PartitionedBatchExecutor(BatchHandler<T, R> handler, Function<? super T, ? extends K> keyFunction,
+                                    int partitionQty, int capacity) {
+        Objects.requireNonNull(handler, "handler");
+        this.keyFunction = Objects.requireNonNull(keyFunction, "keyFunction");
+        if (partitionQty <= 0) {
+            throw new IllegalArgumentException("partitionQty: " + partitionQty);
+        }
+        int qty = MpscRingBatchQueue.roundToPowerOfTwo(partitionQty);
+        this.mask = qty - 1;
+        this.partitions = new CallerRunsBatchExecutor[qty];
+        for (int i = 0; i < qty; i++) {
+            CallerRunsBatchExecutor<T, R> partition = new CallerRunsBatchExecutor<>(handler, new MpscRingBatchQueue<>(capacity));
+            partition.setOrdered(true);
+            partition.setLoopTaskName("partitioned-batch-loop-" + i);
+            partitions[i] = partition;
+        }
+    }
+
+    /**
+     * @see CallerRunsBatchExecutor#add(Object)
+     */
+    public CompletableFuture<R> add(T item) throws BatchExecutorAddException {
+        return partitions[partitionOf(keyFunction.apply(item))].add(item);
+    }
+
+    int partitionOf(K key) {
+        if (key == null) {
+            return 0;
+        }
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    public CallerRunsBatchExecutor<T, R> getPartition(int index) {
+        return partitions[index];
+    }
+
+    public int getPartitionQty() {
+        return partitions.length;
+    }
+
+    /**
+     * @param period 每个分区的等待时间，单位（毫秒）
+     */
+    public void setPeriod(long period) {
+        for (CallerRunsBatchExecutor<T, R> partition : partitions) {
+            partition.setPeriod(period);
+        }
+    }
+
+    /**
+     * @param maxQty 每个分区的批次大小
+     */
+    public void setMaxQty(int maxQty) {
+        for (CallerRunsBatchExecutor<T, R> partition : partitions) {
+            partition.setMaxQty(maxQty);
+        }
+    }
+
+    /**
+     * 每个分区的流量不同，各自使用一个tuner
+     */
+    public void setAdaptiveTuner(Supplier<AdaptiveBatchTuner> tunerSupplier) {
+        for (CallerRunsBatchExecutor<T, R> partition : partitions) {
+            partition.setAdaptiveTuner(tunerSupplier == null ? null : tunerSupplier.get());
+        }
+    }
+
+    public void setOverflowPolicy(CallerRunsBatchExecutor.OverflowPolicy overflowPolicy) {
+        for (CallerRunsBatchExecutor<T, R> partition : partitions) {
+            partition.setOverflowPolicy(overflowPolicy);
+        }
+    }
+
+    /**
+     * @param offerTimeout BLOCK时最多等待的时间，单位（毫秒）
+     */
+    public void setOfferTimeout(long offerTimeout) {
+        for (CallerRunsBatchExecutor<T, R> partition : partitions) {
+            partition.setOfferTimeout(offerTimeout);
+        }
+    }
+
+    public void shutdown() {
+        for (CallerRunsBatchExecutor<T, R> partition : partitions) {
+            partition.shutdown();
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package com.chenz.component.threadpool;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * 根据等待耗时、执行耗时和到达速率，定期调整线程池的线程数和工作队列容量，使等待耗时p99保持在目标以内
+ *
+ * 按Little定律，忙碌的线程数 = 到达速率 * 平均执行耗时，所以：
+ *   线程数 = 到达速率 * 平均执行耗时 / 目标利用率，限制在[minPoolSize, maxPoolSize]
+ *   队列容量 = 线程数 / 平均执行耗时 * 目标等待耗时，即目标等待时间内能处理完的数量，限制在[minCapacity, maxCapacity]
+ * 等待耗时p99超过目标时，至少增加当前线程数的1/4；
+ * 缩小需要连续shrinkDelay次满足条件（等待耗时低于目标一半，计算值低于当前的(1-tolerance)），每次只缩小差值的一半，避免来回震荡
+ */
+public class PoolSizeTuner {
+
+    /**
+     * 到达速率的平滑系数
+     */
+    private static final double RATE_ALPHA = 0.3D;
+
+    private int minPoolSize = 1;
+
+    private int maxPoolSize = 64;
+
+    private int minCapacity = 16;
+
+    private int maxCapacity = 10_000;
+
+    /**
+     * 目标等待耗时p99，单位（毫秒）
+     */
+    private long targetWait = 100L;
+
+    /**
+     * 目标利用率，留出余量应对突发
+     */
+    private double targetUtilization = 0.8D;
+
+    /**
+     * 低于当前值的比例超过tolerance才缩小
+     */
+    private double tolerance = 0.1D;
+
+    /**
+     * 连续满足几次才缩小
+     */
+    private int shrinkDelay = 3;
+
+    /**
+     * 调整间隔，单位（毫秒）
+     */
+    private long tuneInterval = 1000L;
+
+    private ThreadPoolExecutor executor;
+
+    private ExecutorMonitor monitor;
+
+    private Object resizeLock;
+
+    /**
+     * StuckTaskWatchdog临时补充的工作线程数量，持有resizeLock时读取；计算和设置线程数时扣除
+     */
+    private IntSupplier extraWorkers;
+
+    private ScheduledExecutorService scheduler;
+
+    private long lastTuneNanos;
+
+    private long lastSubmittedQty;
+
+    private LongHistogram.Snapshot lastWaitTime;
+
+    private LongHistogram.Snapshot lastRunTime;
+
+    private int shrinkVotes;
+
+    private volatile double arrivalRate;
+
+    private volatile long runMeanNanos;
+
+    private volatile long waitP99Nanos;
+
+    /**
+     * 由ThreadMonitorExecutor.setPoolSizeTuner调用，一个tuner只能绑定一个线程池
+     */
+    synchronized void start(ThreadPoolExecutor executor, ExecutorMonitor monitor, Object resizeLock, IntSupplier extraWorkers) {
+        if (this.executor != null) {
+            throw new IllegalStateException("tuner already started");
+        }
+        this.executor = executor;
+        this.monitor = monitor;
+        this.resizeLock = resizeLock;
+        this.extraWorkers = extraWorkers;
+        this.lastTuneNanos = System.nanoTime();
+        this.lastSubmittedQty = monitor.getSubmittedQty();
+        this.lastWaitTime = monitor.waitTimeSnapshot();
+        this.lastRunTime = monitor.runTimeSnapshot();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "pool-size-tuner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::tuneQuietly, tuneInterval, tuneInterval, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    private void tuneQuietly() {
+        try {
+            tune();
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 计算一次并调整，正常由后台线程按tuneInterval调用
+     */
+    public synchronized void tune() {
+        if (executor == null || executor.isShutdown()) {
+            return;
+        }
+        long now = System.nanoTime();
+        long elapsed = now - lastTuneNanos;
+        if (elapsed <= 0) {
+            return;
+        }
+        lastTuneNanos = now;
+
+        long submittedQty = monitor.getSubmittedQty();
+        double rate = (submittedQty - lastSubmittedQty) * 1e9D / elapsed;
+        lastSubmittedQty = submittedQty;
+        double smoothedRate = arrivalRate == 0D ? rate : RATE_ALPHA * rate + (1 - RATE_ALPHA) * arrivalRate;
+        arrivalRate = smoothedRate;
+
+        LongHistogram.Snapshot waitTime = monitor.waitTimeSnapshot();
+        LongHistogram.Snapshot runTime = monitor.runTimeSnapshot();
+        LongHistogram.Snapshot waitDelta = waitTime.subtract(lastWaitTime);
+        LongHistogram.Snapshot runDelta = runTime.subtract(lastRunTime);
+        lastWaitTime = waitTime;
+        lastRunTime = runTime;
+        if (runDelta.getCount() > 0) {
+            runMeanNanos = (long) runDelta.getMean();
+        }
+        long waitP99 = waitDelta.getPercentile(99);
+        waitP99Nanos = waitP99;
+        long runMean = runMeanNanos;
+        if (runMean <= 0) {
+            //还没有任务执行完，没有依据
+            return;
+        }
+
+        long targetWaitNanos = TimeUnit.MILLISECONDS.toNanos(targetWait);
+        int size;
+        synchronized (resizeLock) {
+            size = executor.getCorePoolSize() - extraWorkers.getAsInt();
+        }
+        int desired = (int) clamp((long) Math.ceil(smoothedRate * runMean / 1e9D / targetUtilization), minPoolSize, maxPoolSize);
+        if (waitP99 > targetWaitNanos) {
+            desired = (int) clamp(Math.max(desired, size + Math.max(1, size / 4)), minPoolSize, maxPoolSize);
+        }
+        if (desired > size) {
+            shrinkVotes = 0;
+            resize(desired);
+            size = desired;
+        } else if (desired < size * (1 - tolerance) && waitP99 < targetWaitNanos / 2) {
+            if (++shrinkVotes >= shrinkDelay) {
+                shrinkVotes = 0;
+                size = size - (size - desired + 1) / 2;
+                resize(size);
+            }
+        } else {
+            shrinkVotes = 0;
+        }
+
+        BlockingQueue<Runnable> queue = executor.getQueue();
+        if (queue instanceof ResizableBlockingQueue) {
+            ResizableBlockingQueue<Runnable> resizable = (ResizableBlockingQueue<Runnable>) queue;
+            int capacity = (int) clamp((long) Math.ceil((double) size * targetWaitNanos / runMean), minCapacity, maxCapacity);
+            int current = resizable.getCapacity();
+            if (Math.abs(capacity - current) > current * tolerance) {
+                resizable.setCapacity(capacity);
+            }
+        }
+    }
+
+    /**
+     * @param size 不包括StuckTaskWatchdog补充的工作线程
+     */
+    private void resize(int size) {
+        synchronized (resizeLock) {
+            size += extraWorkers.getAsInt();
+            if (size > executor.getMaximumPoolSize()) {
+                executor.setMaximumPoolSize(size);
+                executor.setCorePoolSize(size);
+            } else {
+                executor.setCorePoolSize(size);
+                executor.setMaximumPoolSize(size);
+            }
+        }
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    public void setPoolSizeBounds(int minPoolSize, int maxPoolSize) {
+        if (minPoolSize < 1 || maxPoolSize < minPoolSize) {
+            throw new IllegalArgumentException("minPoolSize: " + minPoolSize + ", maxPoolSize: " + maxPoolSize);
+        }
+        this.minPoolSize = minPoolSize;
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    public void setCapacityBounds(int minCapacity, int maxCapacity) {
+        if (minCapacity < 1 || maxCapacity < minCapacity) {
+            throw new IllegalArgumentException("minCapacity: " + minCapacity + ", maxCapacity: " + maxCapacity);
+        }
+        this.minCapacity = minCapacity;
+        this.maxCapacity = maxCapacity;
+    }
+
+    public void setTargetWait(long targetWait) {
+        this.targetWait = targetWait;
+    }
+
+    public void setTargetUtilization(double targetUtilization) {
+        if (targetUtilization <= 0D || targetUtilization > 1D) {
+            throw new IllegalArgumentException("targetUtilization: " + targetUtilization);
+        }
+        this.targetUtilization = targetUtilization;
+    }
+
+    /**
+     * @param tolerance  计算值低于当前的比例超过tolerance才缩小
+     * @param shrinkDelay 连续满足几次才缩小
+     */
+    public void setHysteresis(double tolerance, int shrinkDelay) {
+        if (tolerance < 0D || tolerance >= 1D || shrinkDelay < 1) {
+            throw new IllegalArgumentException("tolerance: " + tolerance + ", shrinkDelay: " + shrinkDelay);
+        }
+        this.tolerance = tolerance;
+        this.shrinkDelay = shrinkDelay;
+    }
+
+    /**
+     * 需要在绑定线程池之前设置
+     */
+    public void setTuneInterval(long tuneInterval) {
+        this.tuneInterval = tuneInterval;
+    }
+
+    public long getTuneInterval() {
+        return tuneInterval;
+    }
+
+    /**
+     * @return 平滑后的到达速率，单位（个/秒）
+     */
+    public double getArrivalRate() {
+        return arrivalRate;
+    }
+
+    /**
+     * @return 最近一个间隔的平均执行耗时，单位（纳秒）
+     */
+    public long getRunMeanNanos() {
+        return runMeanNanos;
+    }
+
+    /**
+     * @return 最近一个间隔的等待耗时p99，单位（纳秒）
+     */
+    public long getWaitP99Nanos() {
+        return waitP99Nanos;
+    }
+
+    @Override
+    public String toString() {
+        return "PoolSizeTuner{arrivalRate=" + arrivalRate + "/s, runMean=" + TimeUnit.NANOSECONDS.toMicros(runMeanNanos)
+                + "us, waitP99=" + TimeUnit.NANOSECONDS.toMicros(waitP99Nanos) + "us}";
+    }
+}
@@ -0,0 +1,179 @@
+package com.chenz.component.threadpool;
+
+import java.util.Collection;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 容量可以运行时调整的有界队列，用作线程池的工作队列
+ * 容量在入队前检查（线程池提交任务只调用offer），并发提交时可能略微超出；
+ * 调小容量不会丢弃已在队列中的任务。put和offer(timeout)按当前容量阻塞，出队或调大容量时唤醒
+ */
+public class ResizableBlockingQueue<E> extends LinkedBlockingQueue<E> {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 等待空间时最长多久重新检查一次，通过迭代器等其他方式移除元素时不会唤醒
+     */
+    private static final long RECHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private volatile int capacity;
+
+    private final ReentrantLock spaceLock = new ReentrantLock();
+
+    private final Condition notFull = spaceLock.newCondition();
+
+    /**
+     * 等待空间的线程数量，没有等待时出队不加锁
+     */
+    private volatile int waiters;
+
+    /**
+     * @param capacity 初始容量
+     */
+    public ResizableBlockingQueue(int capacity) {
+        super();
+        setCapacity(capacity);
+    }
+
+    @Override
+    public boolean offer(E e) {
+        if (size() >= capacity) {
+            return false;
+        }
+        return super.offer(e);
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        if (!awaitSpace(unit.toNanos(timeout))) {
+            return false;
+        }
+        return super.offer(e);
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        awaitSpace(Long.MAX_VALUE);
+        super.put(e);
+    }
+
+    /**
+     * @param nanos Long.MAX_VALUE表示一直等待
+     * @return 是否有空间，超时返回false
+     */
+    private boolean awaitSpace(long nanos) throws InterruptedException {
+        if (size() < capacity) {
+            return true;
+        }
+        long deadline = System.nanoTime() + nanos;
+        spaceLock.lockInterruptibly();
+        try {
+            waiters++;
+            try {
+                //先增加waiters再检查size，和出队时先减少size再检查waiters配合，不会漏掉唤醒
+                while (size() >= capacity) {
+                    long remaining = nanos == Long.MAX_VALUE ? RECHECK_NANOS : deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    notFull.awaitNanos(Math.min(remaining, RECHECK_NANOS));
+                }
+                return true;
+            } finally {
+                waiters--;
+            }
+        } finally {
+            spaceLock.unlock();
+        }
+    }
+
+    private void signalNotFull() {
+        if (waiters > 0) {
+            spaceLock.lock();
+            try {
+                notFull.signalAll();
+            } finally {
+                spaceLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        E e = super.take();
+        signalNotFull();
+        return e;
+    }
+
+    @Override
+    public E poll() {
+        E e = super.poll();
+        if (e != null) {
+            signalNotFull();
+        }
+        return e;
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        E e = super.poll(timeout, unit);
+        if (e != null) {
+            signalNotFull();
+        }
+        return e;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        boolean removed = super.remove(o);
+        if (removed) {
+            signalNotFull();
+        }
+        return removed;
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        int n = super.drainTo(c, maxElements);
+        if (n > 0) {
+            signalNotFull();
+        }
+        return n;
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        signalNotFull();
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Math.max(0, capacity - size());
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * 调大容量时唤醒等待空间的put/offer(timeout)
+     */
+    public void setCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity: " + capacity);
+        }
+        this.capacity = capacity;
+        signalNotFull();
+    }
+}
@@ -0,0 +1,28 @@
+package com.chenz.component.threadpool;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 正在执行的任务
+ */
+@Getter
+@Setter
+public class RunningTask {
+    private String threadName;
+    /**
+     * 提交的原始任务
+     */
+    private Runnable task;
+    private long submitTime;
+    private long startExeTime;
+    /**
+     * 已执行时间，单位（毫秒）
+     */
+    private long runCost;
+    private long runTimeout;
+    /**
+     * 工作线程的堆栈，不需要时为null
+     */
+    private StackTraceElement[] stackTrace;
+}
@@ -0,0 +1,43 @@
+package com.chenz.component.threadpool;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 周期任务的统计快照，耗时单位（纳秒）
+ */
+@Getter
+@Setter
+public class ScheduledJobSnapshot {
+    private String name;
+    /**
+     * true: scheduleAtFixedRate, false: scheduleWithFixedDelay
+     */
+    private boolean fixedRate;
+    /**
+     * 周期或间隔，单位（毫秒）
+     */
+    private long period;
+    private long runQty;
+    /**
+     * 执行耗时超过周期的次数
+     */
+    private long overrunQty;
+    /**
+     * 固定频率的任务迟到超过一个周期、仍然补跑的次数
+     */
+    private long catchUpQty;
+    /**
+     * 固定频率的任务迟到超过一个周期、跳过的次数（setSkipMissedExecutions）
+     */
+    private long skippedQty;
+    /**
+     * 最近一次的迟到时间
+     */
+    private long lastLateNanos;
+    /**
+     * 实际执行时间 - 计划执行时间
+     */
+    private LongHistogram.Snapshot lateTime;
+    private LongHistogram.Snapshot runTime;
+}
@@ -0,0 +1,439 @@
+package com.chenz.component.threadpool;
+
+import com.chenz.component.threadpool.ThreadMonitorExecutor.ThreadPoolLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 定时线程池,具有监控功能
+ * 等待耗时按计划执行时间计算（迟到时间），除了和ThreadMonitorExecutor相同的超时计数、直方图和ThreadPoolLogger回调外，
+ * 周期任务单独统计迟到时间、执行超过周期(overrun)的次数，以及因迟到而补跑或跳过的次数
+ */
+public class ScheduledThreadMonitorExecutor extends ScheduledThreadPoolExecutor {
+
+    private final ExecutorMonitor monitor = new ExecutorMonitor();
+
+    /**
+     * 周期任务，任务结束或取消后移除
+     */
+    private final ConcurrentMap<Long, ScheduledJob> jobs = new ConcurrentHashMap<>();
+
+    private final AtomicLong jobIdGenerator = new AtomicLong();
+
+    /**
+     * 固定频率的任务迟到超过一个周期时，是否跳过这次执行
+     */
+    private volatile boolean skipMissedExecutions;
+
+    public ScheduledThreadMonitorExecutor(int corePoolSize) {
+        super(corePoolSize);
+        countRejections();
+    }
+
+    public ScheduledThreadMonitorExecutor(int corePoolSize, ThreadFactory threadFactory) {
+        super(corePoolSize, threadFactory);
+        countRejections();
+    }
+
+    public ScheduledThreadMonitorExecutor(int corePoolSize, RejectedExecutionHandler handler) {
+        super(corePoolSize, handler);
+        countRejections();
+    }
+
+    public ScheduledThreadMonitorExecutor(int corePoolSize, ThreadFactory threadFactory, RejectedExecutionHandler handler) {
+        super(corePoolSize, threadFactory, handler);
+        countRejections();
+    }
+
+    /**
+     * 包装拒绝策略，见CountingRejectedHandler
+     */
+    private void countRejections() {
+        super.setRejectedExecutionHandler(new CountingRejectedHandler(super.getRejectedExecutionHandler(), monitor));
+    }
+
+    @Override
+    public void setRejectedExecutionHandler(RejectedExecutionHandler handler) {
+        if (handler == null) {
+            throw new NullPointerException();
+        }
+        super.setRejectedExecutionHandler(new CountingRejectedHandler(handler, monitor));
+    }
+
+    @Override
+    public RejectedExecutionHandler getRejectedExecutionHandler() {
+        return ((CountingRejectedHandler) super.getRejectedExecutionHandler()).getHandler();
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+        return scheduleAtFixedRate(defaultName(command), command, initialDelay, period, unit);
+    }
+
+    /**
+     * @param name 任务名称，用于统计
+     */
+    public ScheduledFuture<?> scheduleAtFixedRate(String name, Runnable command, long initialDelay, long period, TimeUnit unit) {
+        if (command == null || unit == null) {
+            throw new NullPointerException();
+        }
+        ScheduledJob job = new ScheduledJob(jobIdGenerator.incrementAndGet(), name, command, unit.toNanos(period), true);
+        return super.scheduleAtFixedRate(job, initialDelay, period, unit);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+        return scheduleWithFixedDelay(defaultName(command), command, initialDelay, delay, unit);
+    }
+
+    /**
+     * @param name 任务名称，用于统计
+     */
+    public ScheduledFuture<?> scheduleWithFixedDelay(String name, Runnable command, long initialDelay, long delay, TimeUnit unit) {
+        if (command == null || unit == null) {
+            throw new NullPointerException();
+        }
+        ScheduledJob job = new ScheduledJob(jobIdGenerator.incrementAndGet(), name, command, unit.toNanos(delay), false);
+        return super.scheduleWithFixedDelay(job, initialDelay, delay, unit);
+    }
+
+    private static String defaultName(Runnable command) {
+        return command == null ? null : command.getClass().getName();
+    }
+
+    @Override
+    protected <V> RunnableScheduledFuture<V> decorateTask(Runnable runnable, RunnableScheduledFuture<V> task) {
+        ScheduledJob job = runnable instanceof ScheduledJob ? (ScheduledJob) runnable : null;
+        MonitorScheduledTask<V> monitorTask = new MonitorScheduledTask<>(task, job);
+        if (job != null) {
+            job.future = monitorTask;
+            jobs.put(job.id, job);
+        }
+        //schedule/execute都经过这里，之后入队或被拒绝
+        monitor.onSubmit();
+        return monitorTask;
+    }
+
+    @Override
+    protected <V> RunnableScheduledFuture<V> decorateTask(Callable<V> callable, RunnableScheduledFuture<V> task) {
+        monitor.onSubmit();
+        return new MonitorScheduledTask<>(task, null);
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        MonitorScheduledTask<?> task = (MonitorScheduledTask<?>) r;
+        task.startNanos = System.nanoTime();
+        //执行前计划时间还没有更新为下次，负的剩余延迟就是迟到时间
+        task.lateNanos = Math.max(0L, -task.getDelay(TimeUnit.NANOSECONDS));
+        task.threadName = t.getName();
+        ScheduledJob job = task.job;
+        if (job != null) {
+            job.skipCurrent = job.fixedRate && skipMissedExecutions && task.lateNanos >= job.periodNanos;
+        }
+        if (job == null || !job.skipCurrent) {
+            monitor.onStart();
+        } else {
+            //跳过的这次没有执行就离开了队列
+            monitor.onRemoved(1);
+        }
+        super.beforeExecute(t, r);
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+        super.afterExecute(r, t);
+        MonitorScheduledTask<?> task = (MonitorScheduledTask<?>) r;
+        long runNanos = System.nanoTime() - task.startNanos;
+        if (t == null && task.isDone()) {
+            t = failureOf(task);
+        }
+        if (task.isPeriodic() && !task.isDone() && (!isShutdown() || getContinueExistingPeriodicTasksAfterShutdownPolicy())) {
+            //周期任务执行后已按下次时间重新入队，每次入队都计入提交
+            monitor.onSubmit();
+        }
+        ScheduledJob job = task.job;
+        if (job != null) {
+            if (task.isDone()) {
+                jobs.remove(job.id);
+            }
+            if (job.skipCurrent) {
+                job.skippedCounter.incrementAndGet();
+                return;
+            }
+            job.record(task.lateNanos, runNanos);
+        }
+        monitor.record(task.threadName, task.lateNanos, runNanos, t);
+    }
+
+    /**
+     * 关闭时ScheduledThreadPoolExecutor按策略直接从队列中移除延迟/周期任务，这里看不到，按关闭后队列中实际剩余的数量修正
+     */
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        long removed = monitor.getQueueDepth() - getQueue().size();
+        if (removed > 0) {
+            monitor.onRemoved(removed);
+        }
+    }
+
+    /**
+     * 返回的任务没有执行，从队列深度中减去
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        List<Runnable> tasks = super.shutdownNow();
+        monitor.onRemoved(tasks.size());
+        return tasks;
+    }
+
+    @Override
+    public boolean remove(Runnable task) {
+        boolean removed = super.remove(task);
+        if (removed) {
+            monitor.onRemoved(1);
+        }
+        return removed;
+    }
+
+    /**
+     * 和ThreadPoolExecutor.purge相同，移除队列中已取消的任务，同时计入移除数量
+     */
+    @Override
+    public void purge() {
+        BlockingQueue<Runnable> queue = getQueue();
+        long removed = 0;
+        for (Object r : queue.toArray()) {
+            if (r instanceof Future && ((Future<?>) r).isCancelled() && queue.remove(r)) {
+                removed++;
+            }
+        }
+        monitor.onRemoved(removed);
+        super.purge();
+    }
+
+    /**
+     * 任务的异常由FutureTask保存，afterExecute拿不到，结束的任务从Future中取出
+     */
+    private static Throwable failureOf(Future<?> future) {
+        try {
+            future.get();
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        } catch (CancellationException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    public void setRunTimeout(long runTimeout) {
+        monitor.setRunTimeout(runTimeout);
+    }
+
+    /**
+     * @param waitTimeout 迟到超时，单位（毫秒）
+     */
+    public void setWaitTimeout(long waitTimeout) {
+        monitor.setWaitTimeout(waitTimeout);
+    }
+
+    /**
+     * @param logger 为null时不再每个任务回调，waitCost为迟到时间
+     */
+    public void setLogger(ThreadPoolLogger logger) {
+        monitor.setLogger(logger);
+    }
+
+    /**
+     * @param skipMissedExecutions 固定频率的任务迟到超过一个周期时跳过这次执行（不补跑），默认false
+     */
+    public void setSkipMissedExecutions(boolean skipMissedExecutions) {
+        this.skipMissedExecutions = skipMissedExecutions;
+    }
+
+    public boolean isSkipMissedExecutions() {
+        return skipMissedExecutions;
+    }
+
+    public ExecutorMonitor getMonitor() {
+        return monitor;
+    }
+
+    /**
+     * 所有任务的迟到/执行耗时分位数和超时计数
+     */
+    public MonitorSnapshot snapshot() {
+        return monitor.snapshot();
+    }
+
+    /**
+     * @return 未结束的周期任务的统计
+     */
+    public List<ScheduledJobSnapshot> getJobSnapshots() {
+        List<ScheduledJobSnapshot> snapshots = new ArrayList<>(jobs.size());
+        for (ScheduledJob job : jobs.values()) {
+            //取消后不会再执行，在这里移除
+            if (job.future.isDone()) {
+                jobs.remove(job.id);
+                continue;
+            }
+            snapshots.add(job.snapshot());
+        }
+        return snapshots;
+    }
+
+    /**
+     * 周期任务，同一个对象每个周期重复执行
+     */
+    private static class ScheduledJob implements Runnable {
+        private final long id;
+
+        private final String name;
+
+        private final Runnable command;
+
+        private final long periodNanos;
+
+        private final boolean fixedRate;
+
+        private volatile Future<?> future;
+
+        /**
+         * 同一个周期任务不会并发执行，只有执行它的线程读写
+         */
+        private boolean skipCurrent;
+
+        private final AtomicLong runCounter = new AtomicLong();
+
+        private final AtomicLong overrunCounter = new AtomicLong();
+
+        private final AtomicLong catchUpCounter = new AtomicLong();
+
+        private final AtomicLong skippedCounter = new AtomicLong();
+
+        private final LongHistogram lateTime = new LongHistogram(1);
+
+        private final LongHistogram runTime = new LongHistogram(1);
+
+        private volatile long lastLateNanos;
+
+        ScheduledJob(long id, String name, Runnable command, long periodNanos, boolean fixedRate) {
+            this.id = id;
+            this.name = name;
+            this.command = command;
+            this.periodNanos = periodNanos;
+            this.fixedRate = fixedRate;
+        }
+
+        @Override
+        public void run() {
+            if (skipCurrent) {
+                return;
+            }
+            command.run();
+        }
+
+        void record(long lateNanos, long runNanos) {
+            runCounter.incrementAndGet();
+            lastLateNanos = lateNanos;
+            lateTime.record(lateNanos);
+            runTime.record(runNanos);
+            if (runNanos > periodNanos) {
+                overrunCounter.incrementAndGet();
+            }
+            if (fixedRate && lateNanos >= periodNanos) {
+                catchUpCounter.incrementAndGet();
+            }
+        }
+
+        ScheduledJobSnapshot snapshot() {
+            ScheduledJobSnapshot snapshot = new ScheduledJobSnapshot();
+            snapshot.setName(name);
+            snapshot.setFixedRate(fixedRate);
+            snapshot.setPeriod(TimeUnit.NANOSECONDS.toMillis(periodNanos));
+            snapshot.setRunQty(runCounter.get());
+            snapshot.setOverrunQty(overrunCounter.get());
+            snapshot.setCatchUpQty(catchUpCounter.get());
+            snapshot.setSkippedQty(skippedCounter.get());
+            snapshot.setLastLateNanos(lastLateNanos);
+            snapshot.setLateTime(lateTime.snapshot());
+            snapshot.setRunTime(runTime.snapshot());
+            return snapshot;
+        }
+    }
+
+    /**
+     * 包装ScheduledThreadPoolExecutor创建的任务，记录开始时间和迟到时间；周期任务每次重新入队的也是这个对象
+     */
+    private static class MonitorScheduledTask<V> implements RunnableScheduledFuture<V> {
+        private final RunnableScheduledFuture<V> task;
+
+        private final ScheduledJob job;
+
+        private String threadName;
+
+        private long startNanos;
+
+        private long lateNanos;
+
+        MonitorScheduledTask(RunnableScheduledFuture<V> task, ScheduledJob job) {
+            this.task = task;
+            this.job = job;
+        }
+
+        @Override
+        public boolean isPeriodic() {
+            return task.isPeriodic();
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return task.getDelay(unit);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            if (o instanceof MonitorScheduledTask) {
+                return task.compareTo(((MonitorScheduledTask<?>) o).task);
+            }
+            return task.compareTo(o);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return task.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return task.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return task.isDone();
+        }
+
+        @Override
+        public V get() throws InterruptedException, ExecutionException {
+            return task.get();
+        }
+
+        @Override
+        public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            return task.get(timeout, unit);
+        }
+    }
+}
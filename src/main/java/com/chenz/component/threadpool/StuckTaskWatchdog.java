@@ -0,0 +1,335 @@
+package com.chenz.component.threadpool;
+
+import com.chenz.component.threadpool.ThreadMonitorExecutor.MonitorRunnable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 执行中任务的看门狗
+ * 每个工作线程有一个固定的槽位（ThreadLocal），开始/结束执行时只写槽位的字段，不加锁也不创建对象；
+ * 后台线程定期扫描所有槽位，执行时间超过runTimeout的任务上报一次工作线程的堆栈，并按action中断或补充工作线程
+ */
+public class StuckTaskWatchdog {
+
+    /**
+     * 卡住任务的处理方式
+     */
+    public enum StuckTaskAction {
+        /**
+         * 只上报
+         */
+        NONE,
+        /**
+         * 中断工作线程
+         */
+        INTERRUPT,
+        /**
+         * 核心/最大线程数临时加一，补充一个工作线程；任务结束后恢复。
+         * 同时开启PoolSizeTuner时，tuner按扣除补充线程后的数量计算和设置，两者不会互相覆盖
+         */
+        REPLACE_WORKER
+    }
+
+    public interface StuckTaskListener {
+        default void onStuck(RunningTask task, StuckTaskAction action) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(task.getThreadName()).append(" stuck. runCost/runTimeout: [").append(task.getRunCost()).append('/')
+                    .append(task.getRunTimeout()).append("], action: ").append(action);
+            StackTraceElement[] stackTrace = task.getStackTrace();
+            if (stackTrace != null) {
+                for (StackTraceElement element : stackTrace) {
+                    sb.append(System.lineSeparator()).append("\tat ").append(element);
+                }
+            }
+            System.out.println(sb);
+        }
+    }
+
+    private final ThreadPoolExecutor executor;
+
+    private final ExecutorMonitor monitor;
+
+    private final ThreadLocal<WorkerSlot> localSlot = new ThreadLocal<>();
+
+    private final List<WorkerSlot> slots = new CopyOnWriteArrayList<>();
+
+    /**
+     * 调整线程数时加锁，避免和其他调整交错
+     */
+    private final Object resizeLock;
+
+    /**
+     * 当前补充的工作线程数量，resizeLock保护
+     */
+    private int extraWorkers;
+
+    private final AtomicLong stuckCounter = new AtomicLong();
+
+    private volatile StuckTaskAction action = StuckTaskAction.NONE;
+
+    private volatile StuckTaskListener listener = new StuckTaskListener(){};
+
+    private ScheduledExecutorService scanner;
+
+    private ScheduledFuture<?> scanFuture;
+
+    StuckTaskWatchdog(ThreadPoolExecutor executor, ExecutorMonitor monitor, Object resizeLock) {
+        this.executor = executor;
+        this.monitor = monitor;
+        this.resizeLock = resizeLock;
+    }
+
+    /**
+     * 工作线程开始执行任务时调用
+     */
+    void begin(Thread thread, MonitorRunnable task) {
+        WorkerSlot slot = localSlot.get();
+        if (slot == null) {
+            slot = new WorkerSlot(thread);
+            localSlot.set(slot);
+            //线程回收后槽位不再使用，新线程加入时顺便清理
+            slots.removeIf(s -> !s.thread.isAlive());
+            slots.add(slot);
+        }
+        slot.reported = false;
+        slot.startNanos = task.getStartNanos();
+        slot.task = task;
+    }
+
+    /**
+     * 工作线程执行结束时调用
+     */
+    void end() {
+        WorkerSlot slot = localSlot.get();
+        if (slot == null) {
+            return;
+        }
+        boolean replaced;
+        //和scan中的中断、补充线程互斥，它们只对仍在执行的同一个任务生效
+        synchronized (slot) {
+            slot.task = null;
+            replaced = slot.replaced;
+            slot.replaced = false;
+        }
+        if (replaced) {
+            shrink();
+        }
+    }
+
+    /**
+     * 开始定期扫描，重复调用时按新的间隔重新开始
+     *
+     * @param scanInterval 扫描间隔，单位（毫秒）
+     */
+    public synchronized void start(long scanInterval) {
+        if (scanInterval <= 0) {
+            throw new IllegalArgumentException("scanInterval: " + scanInterval);
+        }
+        if (scanner == null) {
+            scanner = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "stuck-task-watchdog");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        if (scanFuture != null) {
+            scanFuture.cancel(false);
+        }
+        scanFuture = scanner.scheduleWithFixedDelay(this::scanQuietly, scanInterval, scanInterval, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (scanner != null) {
+            scanner.shutdownNow();
+            scanner = null;
+            scanFuture = null;
+        }
+    }
+
+    private void scanQuietly() {
+        try {
+            scan();
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 扫描一次，每个卡住的任务只上报一次
+     */
+    public void scan() {
+        long runTimeout = monitor.getRunTimeout();
+        if (runTimeout <= 0) {
+            return;
+        }
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(runTimeout);
+        long now = System.nanoTime();
+        for (WorkerSlot slot : slots) {
+            if (!slot.thread.isAlive()) {
+                slots.remove(slot);
+                continue;
+            }
+            MonitorRunnable task = slot.task;
+            if (task == null || slot.reported || now - slot.startNanos <= timeoutNanos) {
+                continue;
+            }
+            slot.reported = true;
+            StuckTaskAction action = this.action;
+            RunningTask runningTask = toRunningTask(slot, task, now, true);
+            if (runningTask == null) {
+                continue;
+            }
+            stuckCounter.incrementAndGet();
+            if (action == StuckTaskAction.INTERRUPT) {
+                interrupt(slot, task);
+            } else if (action == StuckTaskAction.REPLACE_WORKER) {
+                replace(slot, task);
+            }
+            StuckTaskListener listener = this.listener;
+            if (listener != null) {
+                listener.onStuck(runningTask, action);
+            }
+        }
+    }
+
+    /**
+     * 获取堆栈较慢，期间任务可能已经结束，工作线程在执行下一个任务，所以中断前在槽位锁内再确认一次
+     */
+    private void interrupt(WorkerSlot slot, MonitorRunnable task) {
+        synchronized (slot) {
+            if (slot.task == task) {
+                slot.thread.interrupt();
+            }
+        }
+    }
+
+    private void replace(WorkerSlot slot, MonitorRunnable task) {
+        synchronized (slot) {
+            if (slot.task != task) {
+                return;
+            }
+            grow();
+            slot.replaced = true;
+        }
+    }
+
+    private void grow() {
+        synchronized (resizeLock) {
+            extraWorkers++;
+            executor.setMaximumPoolSize(executor.getMaximumPoolSize() + 1);
+            executor.setCorePoolSize(executor.getCorePoolSize() + 1);
+        }
+    }
+
+    private void shrink() {
+        synchronized (resizeLock) {
+            extraWorkers--;
+            executor.setCorePoolSize(executor.getCorePoolSize() - 1);
+            executor.setMaximumPoolSize(executor.getMaximumPoolSize() - 1);
+        }
+    }
+
+    /**
+     * 调用方持有resizeLock
+     *
+     * @return 当前为卡住任务补充的工作线程数量
+     */
+    int getExtraWorkers() {
+        return extraWorkers;
+    }
+
+    /**
+     * @param threshold 执行时间阈值，单位（毫秒）
+     * @return 当前执行时间超过threshold的任务，按执行时间从长到短
+     */
+    public List<RunningTask> getLongRunningTasks(long threshold, boolean withStackTrace) {
+        long thresholdNanos = TimeUnit.MILLISECONDS.toNanos(threshold);
+        long now = System.nanoTime();
+        List<RunningTask> result = new ArrayList<>();
+        for (WorkerSlot slot : slots) {
+            MonitorRunnable task = slot.task;
+            if (task == null || now - slot.startNanos <= thresholdNanos) {
+                continue;
+            }
+            RunningTask runningTask = toRunningTask(slot, task, now, withStackTrace);
+            if (runningTask != null) {
+                result.add(runningTask);
+            }
+        }
+        result.sort((a, b) -> Long.compare(b.getRunCost(), a.getRunCost()));
+        return result;
+    }
+
+    /**
+     * @return 任务已经结束时返回null
+     */
+    private RunningTask toRunningTask(WorkerSlot slot, MonitorRunnable task, long now, boolean withStackTrace) {
+        RunningTask runningTask = new RunningTask();
+        runningTask.setThreadName(slot.thread.getName());
+        runningTask.setTask(task.getRunnable());
+        runningTask.setSubmitTime(task.getSubmitTime());
+        runningTask.setStartExeTime(task.getStartExeTime());
+        runningTask.setRunCost(TimeUnit.NANOSECONDS.toMillis(now - slot.startNanos));
+        runningTask.setRunTimeout(monitor.getRunTimeout());
+        if (withStackTrace) {
+            runningTask.setStackTrace(slot.thread.getStackTrace());
+        }
+        return slot.task == task ? runningTask : null;
+    }
+
+    /**
+     * @return 上报过的卡住任务数量
+     */
+    public long getStuckQty() {
+        return stuckCounter.get();
+    }
+
+    public StuckTaskAction getAction() {
+        return action;
+    }
+
+    public void setAction(StuckTaskAction action) {
+        this.action = action;
+    }
+
+    public StuckTaskListener getListener() {
+        return listener;
+    }
+
+    /**
+     * @param listener 为null时不上报，只计数
+     */
+    public void setListener(StuckTaskListener listener) {
+        this.listener = listener;
+    }
+
+    private static class WorkerSlot {
+        private final Thread thread;
+
+        private volatile MonitorRunnable task;
+
+        private volatile long startNanos;
+
+        /**
+         * 当前任务是否已经上报
+         */
+        private volatile boolean reported;
+
+        /**
+         * 是否为这个任务补充过工作线程，持有槽位锁时读写
+         */
+        private boolean replaced;
+
+        WorkerSlot(Thread thread) {
+            this.thread = thread;
+        }
+    }
+}
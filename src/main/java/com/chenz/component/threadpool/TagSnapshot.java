@@ -0,0 +1,17 @@
+package com.chenz.component.threadpool;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 一个任务类型(tag)的统计快照，耗时单位（纳秒）
+ */
+@Getter
+@Setter
+public class TagSnapshot {
+    private String tag;
+    private long qty;
+    private long errorQty;
+    private long waitMeanNanos;
+    private LongHistogram.Snapshot runTime;
+}
@@ -0,0 +1,231 @@
+package com.chenz.component.threadpool;
+
+import com.chenz.component.threadpool.ThreadMonitorExecutor.TaggedTask;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 按任务类型(tag)统计数量、异常数和等待/执行耗时
+ * tag由提交时指定，或者由任务实现TaggedTask提供，否则取任务的类名。
+ * lambda生成类的名称带有加载顺序相关的序号（JDK 21没有序号，同一个类中的lambda同名），不能区分也不稳定，
+ * 统一取 <定义lambda的类>$$Lambda，同一个类中的lambda是同一个tag；需要区分时提交时指定tag或实现TaggedTask。
+ * tag数量有上限，超过后的tag都计入OTHER_TAG，内存固定；定期输出最近一个间隔数量最多和p99执行耗时最高的前N个tag
+ */
+public class TaskTagStats {
+
+    public static final String OTHER_TAG = "other";
+
+    private static final int DEFAULT_MAX_TAGS = 256;
+
+    private static final int RUN_TIME_STRIPES = 2;
+
+    private static final String LAMBDA_MARK = "$$Lambda";
+
+    private static final ClassValue<String> CLASS_TAGS = new ClassValue<String>() {
+        @Override
+        protected String computeValue(Class<?> type) {
+            String name = type.getName();
+            //lambda的类名例如 Foo$$Lambda$14/0x0000000800c03000（JDK 17）、Foo$$Lambda/0x0000000800c03000（JDK 21）
+            int lambda = name.indexOf(LAMBDA_MARK);
+            if (lambda > 0) {
+                return name.substring(0, lambda + LAMBDA_MARK.length());
+            }
+            //其他隐藏类的名称后面带有地址
+            int slash = name.indexOf('/');
+            return slash > 0 ? name.substring(0, slash) : name;
+        }
+    };
+
+    private final int maxTags;
+
+    private final ConcurrentHashMap<String, TagStat> stats = new ConcurrentHashMap<>();
+
+    private final TagStat other = new TagStat(OTHER_TAG);
+
+    /**
+     * 上次输出时的执行耗时，用于计算间隔内的数据，只有输出线程读写
+     */
+    private Map<String, LongHistogram.Snapshot> lastRunTimes = new HashMap<>();
+
+    private ScheduledExecutorService reporter;
+
+    public TaskTagStats() {
+        this(DEFAULT_MAX_TAGS);
+    }
+
+    /**
+     * @param maxTags 最多单独统计的tag数量
+     */
+    public TaskTagStats(int maxTags) {
+        if (maxTags <= 0) {
+            throw new IllegalArgumentException("maxTags: " + maxTags);
+        }
+        this.maxTags = maxTags;
+    }
+
+    /**
+     * @param task Runnable或Callable
+     * @return 任务的默认tag
+     */
+    public static String tagOf(Object task) {
+        if (task instanceof TaggedTask) {
+            String tag = ((TaggedTask) task).getTag();
+            if (tag != null) {
+                return tag;
+            }
+        }
+        return CLASS_TAGS.get(task.getClass());
+    }
+
+    /**
+     * 任务结束时调用
+     *
+     * @param waitNanos 等待耗时，单位（纳秒）
+     * @param runNanos  执行耗时，单位（纳秒）
+     */
+    public void record(String tag, long waitNanos, long runNanos, boolean error) {
+        TagStat stat = stats.get(tag);
+        if (stat == null) {
+            stat = stats.size() >= maxTags ? other : stats.computeIfAbsent(tag, TagStat::new);
+        }
+        stat.waitSum.add(waitNanos);
+        stat.runTime.record(runNanos);
+        if (error) {
+            stat.errorCounter.increment();
+        }
+    }
+
+    /**
+     * @return 各tag启动以来累计的数据
+     */
+    public List<TagSnapshot> snapshot() {
+        List<TagSnapshot> snapshots = new ArrayList<>(stats.size() + 1);
+        for (TagStat stat : stats.values()) {
+            snapshots.add(stat.snapshot());
+        }
+        if (other.runTime.snapshot().getCount() > 0) {
+            snapshots.add(other.snapshot());
+        }
+        return snapshots;
+    }
+
+    /**
+     * 定期输出最近一个间隔的top N，重复调用时按新的参数重新开始
+     *
+     * @param interval 输出间隔，单位（毫秒）
+     * @param out      为null时输出到System.out
+     */
+    public synchronized void startReporter(long interval, int topN, Consumer<String> out) {
+        if (interval <= 0 || topN <= 0) {
+            throw new IllegalArgumentException("interval: " + interval + ", topN: " + topN);
+        }
+        stopReporter();
+        Consumer<String> target = out == null ? System.out::println : out;
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "task-tag-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleWithFixedDelay(() -> {
+            try {
+                String report = report(topN);
+                if (report != null) {
+                    target.accept(report);
+                }
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopReporter() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+    }
+
+    /**
+     * 距上次调用期间，数量最多和p99执行耗时最高的前N个tag
+     *
+     * @return 期间没有任务时返回null
+     */
+    public synchronized String report(int topN) {
+        Map<String, LongHistogram.Snapshot> runTimes = new HashMap<>(stats.size() * 2 + 1);
+        List<Map.Entry<String, LongHistogram.Snapshot>> deltas = new ArrayList<>();
+        List<TagStat> all = new ArrayList<>(stats.values());
+        all.add(other);
+        for (TagStat stat : all) {
+            LongHistogram.Snapshot runTime = stat.runTime.snapshot();
+            runTimes.put(stat.tag, runTime);
+            LongHistogram.Snapshot last = lastRunTimes.get(stat.tag);
+            LongHistogram.Snapshot delta = last == null ? runTime : runTime.subtract(last);
+            if (delta.getCount() > 0) {
+                deltas.add(new HashMap.SimpleEntry<>(stat.tag, delta));
+            }
+        }
+        lastRunTimes = runTimes;
+        if (deltas.isEmpty()) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder("task tags top ").append(topN).append(" by qty:");
+        deltas.sort(Comparator.comparingLong((Map.Entry<String, LongHistogram.Snapshot> e) -> e.getValue().getCount()).reversed());
+        appendTop(sb, deltas, topN);
+        sb.append(System.lineSeparator()).append("task tags top ").append(topN).append(" by p99 runCost:");
+        deltas.sort(Comparator.comparingLong((Map.Entry<String, LongHistogram.Snapshot> e) -> e.getValue().getPercentile(99)).reversed());
+        appendTop(sb, deltas, topN);
+        return sb.toString();
+    }
+
+    private static void appendTop(StringBuilder sb, List<Map.Entry<String, LongHistogram.Snapshot>> deltas, int topN) {
+        for (int i = 0; i < deltas.size() && i < topN; i++) {
+            Map.Entry<String, LongHistogram.Snapshot> entry = deltas.get(i);
+            LongHistogram.Snapshot runTime = entry.getValue();
+            sb.append(System.lineSeparator()).append("  ").append(entry.getKey())
+                    .append(" qty=").append(runTime.getCount())
+                    .append(", runCost mean/p99/max(ms)=")
+                    .append(TimeUnit.NANOSECONDS.toMillis((long) runTime.getMean())).append('/')
+                    .append(TimeUnit.NANOSECONDS.toMillis(runTime.getPercentile(99))).append('/')
+                    .append(TimeUnit.NANOSECONDS.toMillis(runTime.getMax()));
+        }
+    }
+
+    public int getMaxTags() {
+        return maxTags;
+    }
+
+    private static class TagStat {
+        private final String tag;
+
+        private final LongHistogram runTime = new LongHistogram(RUN_TIME_STRIPES);
+
+        private final LongAdder waitSum = new LongAdder();
+
+        private final LongAdder errorCounter = new LongAdder();
+
+        TagStat(String tag) {
+            this.tag = tag;
+        }
+
+        TagSnapshot snapshot() {
+            LongHistogram.Snapshot runTime = this.runTime.snapshot();
+            TagSnapshot snapshot = new TagSnapshot();
+            snapshot.setTag(tag);
+            snapshot.setQty(runTime.getCount());
+            snapshot.setErrorQty(errorCounter.sum());
+            snapshot.setWaitMeanNanos(runTime.getCount() == 0 ? 0L : waitSum.sum() / runTime.getCount());
+            snapshot.setRunTime(runTime);
+            return snapshot;
+        }
+    }
+}
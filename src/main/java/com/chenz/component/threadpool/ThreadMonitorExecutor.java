@@ -3,9 +3,9 @@ package com.chenz.component.threadpool;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -13,97 +13,305 @@ import java.util.concurrent.atomic.AtomicLong;
  */
 public class ThreadMonitorExecutor extends ThreadPoolExecutor {
     /**
-     * 执行超时，单位（毫秒）
+     * 超时计数、耗时直方图和回调
      */
-    private long runTimeout = - 1;
+    private final ExecutorMonitor monitor = new ExecutorMonitor();
 
     /**
-     * 等待超时，单位（毫秒）
+     * 调整核心/最大线程数时加锁
      */
-    private long waitTimeout = -1;
+    private final Object resizeLock = new Object();
 
     /**
-     * 执行超时数量
+     * 执行中任务的看门狗，startWatchdog后才会定期扫描
      */
-    private final AtomicLong runTimeoutCounter = new AtomicLong();
+    private final StuckTaskWatchdog watchdog = new StuckTaskWatchdog(this, monitor, resizeLock);
 
     /**
-     * 等待超时数量
+     * 线程数和队列容量的自动调整，默认不开启
      */
-    private final AtomicLong waitTimeoutCounter = new AtomicLong();
+    private volatile PoolSizeTuner poolSizeTuner;
 
-    private final AtomicLong totalCounter = new AtomicLong();
+    /**
+     * 过期任务的回调，为空时只计数
+     */
+    private volatile ExpiredTaskListener expiredTaskListener;
 
-    private ThreadPoolLogger logger = new ThreadPoolLogger(){};
+    /**
+     * 按任务类型的统计，默认不开启
+     */
+    private volatile TaskTagStats tagStats;
 
     public ThreadMonitorExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue) {
         super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue);
+        countRejections();
     }
 
     public ThreadMonitorExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory) {
         super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory);
+        countRejections();
     }
 
     public ThreadMonitorExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue, RejectedExecutionHandler handler) {
         super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, handler);
+        countRejections();
     }
 
     public ThreadMonitorExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory, RejectedExecutionHandler handler) {
         super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory, handler);
+        countRejections();
+    }
+
+    /**
+     * 包装拒绝策略，见CountingRejectedHandler
+     */
+    private void countRejections() {
+        super.setRejectedExecutionHandler(new CountingRejectedHandler(super.getRejectedExecutionHandler(), monitor));
+    }
+
+    @Override
+    public void setRejectedExecutionHandler(RejectedExecutionHandler handler) {
+        if (handler == null) {
+            throw new NullPointerException();
+        }
+        super.setRejectedExecutionHandler(new CountingRejectedHandler(handler, monitor));
+    }
+
+    @Override
+    public RejectedExecutionHandler getRejectedExecutionHandler() {
+        return ((CountingRejectedHandler) super.getRejectedExecutionHandler()).getHandler();
     }
 
     @Override
     public void execute(Runnable command) {
         //记录提交时间
         command = new MonitorRunnable(command);
+        monitor.onSubmit();
         super.execute(command);
     }
 
+    /**
+     * 提交任务并指定类型，用于按类型统计
+     */
+    public void execute(Runnable command, String tag) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        MonitorRunnable monitorRunnable = new MonitorRunnable(command);
+        monitorRunnable.setTag(tag);
+        monitor.onSubmit();
+        super.execute(monitorRunnable);
+    }
+
+    /**
+     * 提交带截止时间和优先级的任务，开始执行时已超过截止时间的任务不再执行，计入过期数量并回调ExpiredTaskListener
+     * 工作队列使用DeadlineTaskQueue时按截止时间排序，否则只有过期丢弃
+     *
+     * @param timeout  从提交开始计算的截止时间，小于0表示没有截止时间
+     * @param priority 截止时间相同（或都没有）时，值大的先执行
+     */
+    public void execute(Runnable command, long timeout, TimeUnit unit, int priority) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        MonitorRunnable monitorRunnable = new MonitorRunnable(command, timeout, unit, priority);
+        monitor.onSubmit();
+        super.execute(monitorRunnable);
+    }
+
+    /**
+     * submit/invokeAll提交的任务会先包装成FutureTask，保留原始任务用于计算tag，否则所有任务都是FutureTask这一个tag
+     */
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        return new TaggedFutureTask<>(runnable, value, runnable);
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        return new TaggedFutureTask<>(callable, callable);
+    }
+
     @Override
     protected void beforeExecute(Thread t, Runnable r) {
-        ((MonitorRunnable) r).setStartExeTime(System.currentTimeMillis());
+        MonitorRunnable monitorRunnable = (MonitorRunnable) r;
+        monitorRunnable.markStart();
+        monitor.onStart();
+        watchdog.begin(t, monitorRunnable);
         super.beforeExecute(t, r);
     }
 
     @Override
     protected void afterExecute(Runnable r, Throwable t) {
+        watchdog.end();
         super.afterExecute(r, t);
-        doLog(((MonitorRunnable) r), t);
+        MonitorRunnable monitorRunnable = (MonitorRunnable) r;
+        if (monitorRunnable.isExpired()) {
+            onExpired(monitorRunnable);
+            return;
+        }
+        doLog(monitorRunnable, t);
+    }
+
+    private void onExpired(MonitorRunnable r) {
+        monitor.onExpired();
+        ExpiredTaskListener listener = this.expiredTaskListener;
+        if (listener != null) {
+            listener.onExpired(r.getRunnable(), TimeUnit.NANOSECONDS.toMillis(r.getStartNanos() - r.getDeadlineNanos()));
+        }
+    }
+
+    /**
+     * 返回的任务没有执行，从队列深度中减去
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        List<Runnable> tasks = super.shutdownNow();
+        monitor.onRemoved(tasks.size());
+        return tasks;
+    }
+
+    /**
+     * execute时线程池已关闭也会调用remove，之后按拒绝计数，所以只有运行中移除的才计入移除数量
+     */
+    @Override
+    public boolean remove(Runnable task) {
+        boolean removed = super.remove(task);
+        if (removed && !isShutdown()) {
+            monitor.onRemoved(1);
+        }
+        return removed;
+    }
+
+    /**
+     * 队列中是包装后的MonitorRunnable，ThreadPoolExecutor.purge识别不到其中已取消的Future，在这里移除
+     */
+    @Override
+    public void purge() {
+        BlockingQueue<Runnable> queue = getQueue();
+        long removed = 0;
+        for (Object r : queue.toArray()) {
+            if (r instanceof MonitorRunnable && isCancelled(((MonitorRunnable) r).getRunnable()) && queue.remove(r)) {
+                removed++;
+            }
+        }
+        monitor.onRemoved(removed);
+        super.purge();
+    }
+
+    private static boolean isCancelled(Runnable runnable) {
+        return runnable instanceof Future && ((Future<?>) runnable).isCancelled();
+    }
+
+    @Override
+    protected void terminated() {
+        watchdog.stop();
+        PoolSizeTuner poolSizeTuner = this.poolSizeTuner;
+        if (poolSizeTuner != null) {
+            poolSizeTuner.stop();
+        }
+        TaskTagStats tagStats = this.tagStats;
+        if (tagStats != null) {
+            tagStats.stopReporter();
+        }
+        super.terminated();
     }
 
     private void doLog(MonitorRunnable r, Throwable t) {
-        long totalQty = totalCounter.incrementAndGet();
-        long waitCost = r.getStartExeTime() - r.getSubmitTime();
-        boolean isWaitTimeout = (waitTimeout > 0 && waitCost > waitTimeout);
-        long waitTimeoutQty = isWaitTimeout ? waitTimeoutCounter.incrementAndGet() : waitTimeoutCounter.get();
-        long runCost = System.currentTimeMillis() - r.getStartExeTime();
-        boolean isRunTimeout = (runTimeout > 0 && runCost > runTimeout);
-        long runTimeoutQty = isRunTimeout ? runTimeoutCounter.incrementAndGet() : runTimeoutCounter.get();
-        ExecutorSnapshot executorSnapshot = new ExecutorSnapshot();
-        executorSnapshot.setTotalQty(totalQty);
-        executorSnapshot.setWaitCost(waitCost);
-        executorSnapshot.setIsWaitTimeout(isWaitTimeout);
-        executorSnapshot.setWaitTimeoutQty(waitTimeoutQty);
-        executorSnapshot.setRunCost(runCost);
-        executorSnapshot.setIsRunTimeout(isRunTimeout);
-        executorSnapshot.setRunTimeoutQty(runTimeoutQty);
-        executorSnapshot.setThreadName(r.threadName);
-        executorSnapshot.setWaitTimeout(this.waitTimeout);
-        executorSnapshot.setRunTimeout(this.runTimeout);
-        logger.log(executorSnapshot);
+        long runNanos = System.nanoTime() - r.getStartNanos();
+        long waitNanos = r.getStartNanos() - r.getSubmitNanos();
+        TaskTagStats tagStats = this.tagStats;
+        //没有按类型统计、也没有logger时不需要tag，不计算
+        String tag = tagStats != null || monitor.getLogger() != null ? r.getTag() : null;
+        if (tagStats != null) {
+            tagStats.record(tag, waitNanos, runNanos, t != null);
+        }
+        monitor.record(r.threadName, tag, waitNanos, runNanos, t);
     }
 
 
     public void setRunTimeout(long runTimeout) {
-        this.runTimeout = runTimeout;
+        monitor.setRunTimeout(runTimeout);
     }
 
     public void setWaitTimeout(long waitTimeout) {
-        this.waitTimeout = waitTimeout;
+        monitor.setWaitTimeout(waitTimeout);
     }
 
+    /**
+     * @param logger 为null时不再每个任务回调，只保留计数和直方图，通过snapshot()查看
+     */
     public void setLogger(ThreadPoolLogger logger) {
-        this.logger = logger;
+        monitor.setLogger(logger);
+    }
+
+    /**
+     * 开始定期检查执行中的任务，超过runTimeout时上报堆栈，处理方式见StuckTaskWatchdog.setAction
+     *
+     * @param scanInterval 扫描间隔，单位（毫秒）
+     */
+    public void startWatchdog(long scanInterval) {
+        watchdog.start(scanInterval);
+    }
+
+    /**
+     * 开启线程数自动调整；工作队列是ResizableBlockingQueue时同时调整队列容量
+     */
+    public synchronized void setPoolSizeTuner(PoolSizeTuner poolSizeTuner) {
+        if (this.poolSizeTuner != null) {
+            this.poolSizeTuner.stop();
+        }
+        this.poolSizeTuner = poolSizeTuner;
+        if (poolSizeTuner != null) {
+            poolSizeTuner.start(this, monitor, resizeLock, watchdog::getExtraWorkers);
+        }
+    }
+
+    public PoolSizeTuner getPoolSizeTuner() {
+        return poolSizeTuner;
+    }
+
+    public StuckTaskWatchdog getWatchdog() {
+        return watchdog;
+    }
+
+    /**
+     * @param threshold 执行时间阈值，单位（毫秒）
+     * @return 当前执行时间超过threshold的任务（含堆栈），按执行时间从长到短
+     */
+    public List<RunningTask> getLongRunningTasks(long threshold) {
+        return watchdog.getLongRunningTasks(threshold, true);
+    }
+
+    /**
+     * 开启按任务类型的统计，定期输出见TaskTagStats.startReporter
+     *
+     * @param tagStats 为null时关闭
+     */
+    public void setTagStats(TaskTagStats tagStats) {
+        this.tagStats = tagStats;
+    }
+
+    public TaskTagStats getTagStats() {
+        return tagStats;
+    }
+
+    /**
+     * @param expiredTaskListener 为null时过期任务只计数
+     */
+    public void setExpiredTaskListener(ExpiredTaskListener expiredTaskListener) {
+        this.expiredTaskListener = expiredTaskListener;
+    }
+
+    public ExecutorMonitor getMonitor() {
+        return monitor;
+    }
+
+    /**
+     * 等待/执行耗时的分位数（累计和最近时间窗口）和超时计数
+     */
+    public MonitorSnapshot snapshot() {
+        return monitor.snapshot();
     }
 
     /**
@@ -123,24 +331,123 @@ public class ThreadMonitorExecutor extends ThreadPoolExecutor {
          * 任务开始执行时间
          */
         private long startExeTime;
+        /**
+         * 任务提交时的System.nanoTime()，用于计算耗时
+         */
+        private final long submitNanos;
+        /**
+         * 任务开始执行时的System.nanoTime()
+         */
+        private long startNanos;
+        /**
+         * 截止时间，System.nanoTime()
+         */
+        private final long deadlineNanos;
+        private final boolean hasDeadline;
+        private final int priority;
+        /**
+         * 开始执行时已超过截止时间，没有执行
+         */
+        private boolean expired;
+        /**
+         * 入队顺序，由DeadlineTaskQueue设置
+         */
+        long seq;
+        /**
+         * 任务类型，没有指定时第一次获取时按任务计算
+         */
+        private String tag;
 
         public MonitorRunnable(Runnable runnable){
+            this(runnable, -1L, TimeUnit.MILLISECONDS, 0);
+        }
+
+        /**
+         * @param timeout  从提交开始计算的截止时间，小于0表示没有截止时间
+         * @param priority 值大的先执行
+         */
+        public MonitorRunnable(Runnable runnable, long timeout, TimeUnit unit, int priority){
             this.runnable = runnable;
             submitTime = System.currentTimeMillis();
+            submitNanos = System.nanoTime();
+            this.hasDeadline = timeout >= 0;
+            this.deadlineNanos = hasDeadline ? submitNanos + unit.toNanos(timeout) : 0L;
+            this.priority = priority;
+        }
+
+        /**
+         * 记录开始执行，开始时间按提交时间推算，不再读取系统时钟
+         */
+        public void markStart() {
+            startNanos = System.nanoTime();
+            startExeTime = submitTime + TimeUnit.NANOSECONDS.toMillis(startNanos - submitNanos);
+        }
+
+        public Runnable getRunnable() {
+            return runnable;
+        }
+
+        public long getSubmitNanos() {
+            return submitNanos;
+        }
+
+        public long getStartNanos() {
+            return startNanos;
         }
 
         @Override
         public void run(){
             this.threadName = Thread.currentThread().getName();
+            if (hasDeadline && System.nanoTime() - deadlineNanos > 0) {
+                expired = true;
+                //submit提交的任务，取消后调用方不会一直等待
+                if (runnable instanceof Future) {
+                    ((Future<?>) runnable).cancel(false);
+                }
+                return;
+            }
             runnable.run();
         }
 
+        /**
+         * @return 指定的类型，没有指定时见TaskTagStats.tagOf
+         */
+        public String getTag() {
+            String tag = this.tag;
+            if (tag == null) {
+                tag = TaskTagStats.tagOf(runnable);
+                this.tag = tag;
+            }
+            return tag;
+        }
+
+        public void setTag(String tag) {
+            this.tag = tag;
+        }
+
+        public boolean hasDeadline() {
+            return hasDeadline;
+        }
+
+        public long getDeadlineNanos() {
+            return deadlineNanos;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        public boolean isExpired() {
+            return expired;
+        }
+
         public long getSubmitTime(){
             return submitTime;
         }
 
         public void setStartExeTime(long startExeTime){
             this.startExeTime = startExeTime;
+            this.startNanos = submitNanos + TimeUnit.MILLISECONDS.toNanos(startExeTime - submitTime);
         }
 
         public long getStartExeTime(){
@@ -152,6 +459,48 @@ public class ThreadMonitorExecutor extends ThreadPoolExecutor {
         }
     }
 
+    /**
+     * 任务实现这个接口时，用getTag()作为类型；lambda的默认tag是定义它的类，需要区分时使用
+     */
+    public interface TaggedTask {
+        String getTag();
+    }
+
+    /**
+     * tag取自包装前的Runnable/Callable
+     */
+    private static class TaggedFutureTask<V> extends FutureTask<V> implements TaggedTask {
+        private final Object task;
+
+        TaggedFutureTask(Runnable runnable, V result, Object task) {
+            super(runnable, result);
+            this.task = task;
+        }
+
+        TaggedFutureTask(Callable<V> callable, Object task) {
+            super(callable);
+            this.task = task;
+        }
+
+        @Override
+        public String getTag() {
+            return TaskTagStats.tagOf(task);
+        }
+    }
+
+    /**
+     * 过期任务的回调
+     */
+    public interface ExpiredTaskListener {
+        /**
+         * 在工作线程中调用
+         *
+         * @param task    提交的原始任务
+         * @param overdue 开始执行时超过截止时间多久，单位（毫秒）
+         */
+        void onExpired(Runnable task, long overdue);
+    }
+
     public interface ThreadPoolLogger {
         default void log(ExecutorSnapshot executorSnapshot){
             String messageTemplate = "%s execute finish. waitCost/waitTimeout: [%d/%d=%b], runCost/runTimeout: [%d/%d=%b], ex: %s, totalQty/waitTimeout/runTimeout: [%d/%d/%d]";
@@ -162,6 +511,33 @@ public class ThreadMonitorExecutor extends ThreadPoolExecutor {
                     executorSnapshot.getTotalQty(), executorSnapshot.getWaitTimeoutQty(), executorSnapshot.getRunTimeoutQty());
             System.out.println(msg);
         }
+
+        /**
+         * 任务结束时由线程池调用，参数都是基本类型；默认组装ExecutorSnapshot后调用log，
+         * 需要避免创建对象的实现（如AsyncThreadPoolLogger）覆盖此方法
+         *
+         * @param tag      任务类型，可能为null
+         * @param waitCost 等待耗时，单位（毫秒）
+         * @param runCost  执行耗时，单位（毫秒）
+         */
+        default void onTaskFinished(String threadName, String tag, long waitCost, long waitTimeout, boolean isWaitTimeout,
+                                    long runCost, long runTimeout, boolean isRunTimeout, Throwable t,
+                                    long totalQty, long waitTimeoutQty, long runTimeoutQty) {
+            ExecutorSnapshot executorSnapshot = new ExecutorSnapshot();
+            executorSnapshot.setTag(tag);
+            executorSnapshot.setTotalQty(totalQty);
+            executorSnapshot.setWaitCost(waitCost);
+            executorSnapshot.setIsWaitTimeout(isWaitTimeout);
+            executorSnapshot.setWaitTimeoutQty(waitTimeoutQty);
+            executorSnapshot.setRunCost(runCost);
+            executorSnapshot.setIsRunTimeout(isRunTimeout);
+            executorSnapshot.setRunTimeoutQty(runTimeoutQty);
+            executorSnapshot.setThreadName(threadName);
+            executorSnapshot.setWaitTimeout(waitTimeout);
+            executorSnapshot.setRunTimeout(runTimeout);
+            executorSnapshot.setT(t);
+            log(executorSnapshot);
+        }
     }
 
     @Getter
@@ -175,6 +551,10 @@ public class ThreadMonitorExecutor extends ThreadPoolExecutor {
         private Boolean isRunTimeout;
         private Long runTimeoutQty;
         private String threadName;
+        /**
+         * 任务类型
+         */
+        private String tag;
         private long waitTimeout;
         private long runTimeout;
         private Throwable t;
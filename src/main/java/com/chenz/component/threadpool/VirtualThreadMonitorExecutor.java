@@ -0,0 +1,130 @@
+package com.chenz.component.threadpool;
+
+import com.chenz.component.threadpool.ThreadMonitorExecutor.ThreadPoolLogger;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每个任务一个虚拟线程的执行器，监控方式和ThreadMonitorExecutor相同，用信号量限制并发数代替线程数
+ *
+ * 虚拟线程需要Java 21，实际实现在src/main/java21（multi-release jar的META-INF/versions/21），
+ * 低于21的JVM加载的是这个类，只保留和Java 21版本相同的公共API：构造时直接抛出UnsupportedOperationException，
+ * 不会得到实例，所以下面的实例方法都不会被调用。用isSupported()检查，或者用create()在不支持时得到Optional.empty()
+ */
+public class VirtualThreadMonitorExecutor extends AbstractExecutorService {
+
+    /**
+     * @param maxConcurrency 最大并发执行数
+     */
+    public VirtualThreadMonitorExecutor(int maxConcurrency) {
+        this(maxConcurrency, "virtual-monitor-");
+    }
+
+    /**
+     * @param maxConcurrency 最大并发执行数
+     * @param namePrefix     虚拟线程名称前缀
+     */
+    public VirtualThreadMonitorExecutor(int maxConcurrency, String namePrefix) {
+        throw unsupported();
+    }
+
+    /**
+     * @return 当前JVM是否支持虚拟线程
+     */
+    public static boolean isSupported() {
+        return false;
+    }
+
+    /**
+     * @return 支持虚拟线程时返回新建的执行器，否则返回Optional.empty()
+     */
+    public static Optional<VirtualThreadMonitorExecutor> create(int maxConcurrency, String namePrefix) {
+        return Optional.empty();
+    }
+
+    private static UnsupportedOperationException unsupported() {
+        return new UnsupportedOperationException("VirtualThreadMonitorExecutor requires Java 21+ (current: "
+                + System.getProperty("java.version") + "), check isSupported() or use create() first");
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        throw unsupported();
+    }
+
+    @Override
+    public void shutdown() {
+        throw unsupported();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        throw unsupported();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        throw unsupported();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        throw unsupported();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        throw unsupported();
+    }
+
+    public void setRunTimeout(long runTimeout) {
+        throw unsupported();
+    }
+
+    public void setWaitTimeout(long waitTimeout) {
+        throw unsupported();
+    }
+
+    public void setLogger(ThreadPoolLogger logger) {
+        throw unsupported();
+    }
+
+    public ExecutorMonitor getMonitor() {
+        throw unsupported();
+    }
+
+    public MonitorSnapshot snapshot() {
+        throw unsupported();
+    }
+
+    public int getMaxConcurrency() {
+        throw unsupported();
+    }
+
+    public int getActiveQty() {
+        throw unsupported();
+    }
+
+    public int getWaitingQty() {
+        throw unsupported();
+    }
+
+    public void startPinnedMonitoring(long threshold) {
+        throw unsupported();
+    }
+
+    public long getPinnedQty() {
+        throw unsupported();
+    }
+
+    public LongHistogram.Snapshot getPinnedTime() {
+        throw unsupported();
+    }
+
+    public LongHistogram.Snapshot getStartLatency() {
+        throw unsupported();
+    }
+}
@@ -0,0 +1,83 @@
+package com.chenz.component.threadpool;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 滚动时间窗口的直方图
+ * 时间按windowMillis划分成格子，循环使用windowCount个LongHistogram，进入新的格子时清空旧数据，
+ * 快照合并最近windowCount个格子，即最近 windowMillis * windowCount 的数据。
+ * 内存固定，记录时无锁，只有切换格子的线程会短暂加锁清空
+ */
+public class WindowedHistogram {
+
+    private final long windowMillis;
+
+    private final Slot[] slots;
+
+    public WindowedHistogram(long windowMillis, int windowCount, int stripes) {
+        if (windowMillis <= 0 || windowCount <= 0) {
+            throw new IllegalArgumentException("windowMillis: " + windowMillis + ", windowCount: " + windowCount);
+        }
+        this.windowMillis = windowMillis;
+        this.slots = new Slot[windowCount];
+        for (int i = 0; i < windowCount; i++) {
+            slots[i] = new Slot(stripes);
+        }
+    }
+
+    public void record(long value) {
+        long epoch = currentEpoch();
+        Slot slot = slots[(int) Math.floorMod(epoch, (long) slots.length)];
+        if (slot.epoch != epoch) {
+            synchronized (slot) {
+                if (slot.epoch != epoch) {
+                    slot.histogram.reset();
+                    slot.epoch = epoch;
+                }
+            }
+        }
+        slot.histogram.record(value);
+    }
+
+    /**
+     * nanoTime可能是负数，向下取整，保证每个窗口的长度相同
+     */
+    private long currentEpoch() {
+        return Math.floorDiv(TimeUnit.NANOSECONDS.toMillis(System.nanoTime()), windowMillis);
+    }
+
+    /**
+     * @return 最近windowCount个窗口合并后的快照
+     */
+    public LongHistogram.Snapshot snapshot() {
+        long epoch = currentEpoch();
+        LongHistogram.Snapshot merged = LongHistogram.Snapshot.EMPTY;
+        for (int k = 0; k < slots.length; k++) {
+            Slot slot = slots[(int) Math.floorMod(epoch - k, (long) slots.length)];
+            if (slot.epoch == epoch - k) {
+                merged = merged.merge(slot.histogram.snapshot());
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * @return 快照覆盖的时间范围，单位（毫秒）
+     */
+    public long getSpanMillis() {
+        return windowMillis * slots.length;
+    }
+
+    private static class Slot {
+        private final LongHistogram histogram;
+
+        /**
+         * 窗口序号可能是负数，未使用的槽用Long.MIN_VALUE标记
+         */
+        private volatile long epoch = Long.MIN_VALUE;
+
+        Slot(int stripes) {
+            this.histogram = new LongHistogram(stripes);
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package com.chenz.component.threadpool;
+
+import com.chenz.component.threadpool.ThreadMonitorExecutor.ThreadPoolLogger;
+import jdk.jfr.consumer.RecordingStream;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 每个任务一个虚拟线程的执行器，监控方式和ThreadMonitorExecutor相同，用信号量限制并发数代替线程数
+ *
+ * 提交时立即启动虚拟线程，虚拟线程先获取信号量再执行任务，等待信号量不占用载体线程；
+ * 等待耗时 = 开始执行 - 提交，包括等待载体线程和等待信号量的时间。
+ * 载体线程饱和时新启动的虚拟线程迟迟得不到调度，通过启动延迟（start到开始运行）的直方图观察；
+ * 虚拟线程在synchronized或本地方法中阻塞会固定(pin)载体线程，通过JFR的jdk.VirtualThreadPinned事件统计
+ */
+public class VirtualThreadMonitorExecutor extends AbstractExecutorService {
+
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+
+    private final ExecutorMonitor monitor = new ExecutorMonitor();
+
+    private final int maxConcurrency;
+
+    private final Semaphore limiter;
+
+    private final ThreadFactory threadFactory;
+
+    /**
+     * 已启动未结束的虚拟线程
+     */
+    private final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger activeCounter = new AtomicInteger();
+
+    /**
+     * 虚拟线程从start到开始运行的耗时，单位（纳秒）
+     */
+    private final LongHistogram startLatency = new LongHistogram();
+
+    /**
+     * 固定载体线程的时长，单位（纳秒）
+     */
+    private final LongHistogram pinnedTime = new LongHistogram();
+
+    private final AtomicLong pinnedCounter = new AtomicLong();
+
+    private final ReentrantLock mainLock = new ReentrantLock();
+
+    private final Condition termination = mainLock.newCondition();
+
+    private volatile boolean shutdown;
+
+    private RecordingStream pinnedStream;
+
+    /**
+     * @param maxConcurrency 最大并发执行数
+     */
+    public VirtualThreadMonitorExecutor(int maxConcurrency) {
+        this(maxConcurrency, "virtual-monitor-");
+    }
+
+    /**
+     * @param maxConcurrency 最大并发执行数
+     * @param namePrefix     虚拟线程名称前缀
+     */
+    public VirtualThreadMonitorExecutor(int maxConcurrency, String namePrefix) {
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("maxConcurrency: " + maxConcurrency);
+        }
+        this.maxConcurrency = maxConcurrency;
+        this.limiter = new Semaphore(maxConcurrency, true);
+        this.threadFactory = Thread.ofVirtual().name(namePrefix, 0).factory();
+    }
+
+    /**
+     * @return 当前JVM是否支持虚拟线程
+     */
+    public static boolean isSupported() {
+        return true;
+    }
+
+    /**
+     * @return 支持虚拟线程时返回新建的执行器，否则返回Optional.empty()
+     */
+    public static Optional<VirtualThreadMonitorExecutor> create(int maxConcurrency, String namePrefix) {
+        return Optional.of(new VirtualThreadMonitorExecutor(maxConcurrency, namePrefix));
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        Objects.requireNonNull(command);
+        Task task = new Task(command);
+        Thread thread = threadFactory.newThread(task);
+        threads.add(thread);
+        if (shutdown) {
+            threads.remove(thread);
+            tryTerminate();
+            //和ThreadMonitorExecutor一样计入提交和拒绝，两者相抵，队列深度不变
+            monitor.onSubmit();
+            monitor.onRejected();
+            throw new RejectedExecutionException("executor has been shut down");
+        }
+        task.startCallNanos = System.nanoTime();
+        monitor.onSubmit();
+        thread.start();
+    }
+
+    private class Task implements Runnable {
+        private final Runnable command;
+
+        private final long submitNanos = System.nanoTime();
+
+        private long startCallNanos;
+
+        Task(Runnable command) {
+            this.command = command;
+        }
+
+        @Override
+        public void run() {
+            startLatency.record(System.nanoTime() - startCallNanos);
+            try {
+                try {
+                    limiter.acquire();
+                } catch (InterruptedException e) {
+                    //shutdownNow时还没有开始执行，计入拒绝
+                    monitor.onRejected();
+                    return;
+                }
+                try {
+                    runCommand();
+                } finally {
+                    limiter.release();
+                }
+            } finally {
+                threads.remove(Thread.currentThread());
+                tryTerminate();
+            }
+        }
+
+        private void runCommand() {
+            long startNanos = System.nanoTime();
+            activeCounter.incrementAndGet();
+            monitor.onStart();
+            Throwable t = null;
+            try {
+                command.run();
+            } catch (RuntimeException | Error e) {
+                t = e;
+                throw e;
+            } finally {
+                activeCounter.decrementAndGet();
+                monitor.record(Thread.currentThread().getName(), startNanos - submitNanos, System.nanoTime() - startNanos, t);
+            }
+        }
+    }
+
+    private void tryTerminate() {
+        if (!shutdown || !threads.isEmpty()) {
+            return;
+        }
+        mainLock.lock();
+        try {
+            termination.signalAll();
+            stopPinnedMonitoring();
+        } finally {
+            mainLock.unlock();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        tryTerminate();
+    }
+
+    /**
+     * 中断所有虚拟线程，等待信号量的任务不再执行
+     *
+     * @return 空列表，任务不在队列中，无法取回
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown();
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return shutdown && threads.isEmpty();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        mainLock.lock();
+        try {
+            while (!isTerminated()) {
+                if (nanos <= 0L) {
+                    return false;
+                }
+                nanos = termination.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            mainLock.unlock();
+        }
+    }
+
+    public void setRunTimeout(long runTimeout) {
+        monitor.setRunTimeout(runTimeout);
+    }
+
+    public void setWaitTimeout(long waitTimeout) {
+        monitor.setWaitTimeout(waitTimeout);
+    }
+
+    /**
+     * @param logger 为null时不再每个任务回调，只保留计数和直方图
+     */
+    public void setLogger(ThreadPoolLogger logger) {
+        monitor.setLogger(logger);
+    }
+
+    public ExecutorMonitor getMonitor() {
+        return monitor;
+    }
+
+    /**
+     * 等待/执行耗时的分位数（累计和最近时间窗口）和超时计数
+     */
+    public MonitorSnapshot snapshot() {
+        return monitor.snapshot();
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * @return 正在执行的任务数量
+     */
+    public int getActiveQty() {
+        return activeCounter.get();
+    }
+
+    /**
+     * @return 等待信号量的任务数量（估计值）
+     */
+    public int getWaitingQty() {
+        return limiter.getQueueLength();
+    }
+
+    /**
+     * 通过JFR订阅虚拟线程固定载体线程的事件，重复调用时按新的阈值重新订阅，执行器结束时停止
+     * JFR事件是整个JVM的，统计包括其他执行器的虚拟线程
+     *
+     * @param threshold 固定时长超过threshold才记录，单位（毫秒）
+     */
+    public void startPinnedMonitoring(long threshold) {
+        mainLock.lock();
+        try {
+            stopPinnedMonitoring();
+            RecordingStream stream = new RecordingStream();
+            stream.enable(PINNED_EVENT).withThreshold(Duration.ofMillis(threshold));
+            stream.onEvent(PINNED_EVENT, event -> {
+                pinnedCounter.incrementAndGet();
+                pinnedTime.record(event.getDuration().toNanos());
+            });
+            stream.startAsync();
+            pinnedStream = stream;
+        } finally {
+            mainLock.unlock();
+        }
+    }
+
+    private void stopPinnedMonitoring() {
+        if (pinnedStream != null) {
+            pinnedStream.close();
+            pinnedStream = null;
+        }
+    }
+
+    /**
+     * @return 固定载体线程的次数
+     */
+    public long getPinnedQty() {
+        return pinnedCounter.get();
+    }
+
+    /**
+     * @return 固定载体线程的时长，单位（纳秒）
+     */
+    public LongHistogram.Snapshot getPinnedTime() {
+        return pinnedTime.snapshot();
+    }
+
+    /**
+     * @return 虚拟线程从start到开始运行的耗时，单位（纳秒），持续升高说明载体线程饱和
+     */
+    public LongHistogram.Snapshot getStartLatency() {
+        return startLatency.snapshot();
+    }
+}
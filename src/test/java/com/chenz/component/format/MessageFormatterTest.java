@@ -0,0 +1,220 @@
+package com.chenz.component.format;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 预编译模板、延迟格式化、formatTo各个重载的输出必须和原来逐个扫描的MessageFormatter完全一致
+ */
+public class MessageFormatterTest {
+
+    /**
+     * 模板由这些片段随机拼成，覆盖转义、双重转义、不成对的括号和代理字符
+     */
+    private static final String[] PIECES = {"{}", "{", "}", "\\", "\\\\", "a", " ", "é", "😀", "\uD800", "x{y}"};
+
+    private static final int ROUNDS = 20000;
+
+    @Test
+    public void escapeRules() {
+        assertSame("a {} b", "a \\{} b", 1);
+        assertSame("a \\1 b", "a \\\\{} b", 1);
+        assertSame("1 2 {}", "{} {} {}", 1, 2);
+        assertSame("1 2", "{} {}", 1, 2, 3);
+        assertSame("no placeholder", "no placeholder", 1);
+        assertSame("[1, 2] [a, [b]] null", "{} {} {}", new int[]{1, 2}, new Object[]{"a", new Object[]{"b"}}, null);
+    }
+
+    @Test
+    public void randomPatternsMatchBaseline() throws Exception {
+        Random random = new Random(42);
+        for (int round = 0; round < ROUNDS; round++) {
+            String pattern = randomPattern(random);
+            Object[] args = randomArgs(random);
+            String expected = baseline(pattern, args);
+            String message = "pattern: " + pattern + ", args: " + Arrays.deepToString(args);
+
+            assertEquals(message, expected, MessageFormatter.arrayFormat(pattern, args).getMessage());
+            assertEquals(message, expected, MessageFormatter.compile(pattern).arrayFormat(args).getMessage());
+            assertEquals(message, expected, MessageFormatter.lazyFormat(pattern, args).getMessage());
+
+            StringBuilder sbuf = new StringBuilder();
+            MessageFormatter.formatTo(sbuf, pattern, args);
+            assertEquals(message, expected, sbuf.toString());
+
+            StringWriter writer = new StringWriter();
+            MessageFormatter.formatTo(writer, pattern, args);
+            assertEquals(message, expected, writer.toString());
+
+            ByteBuffer bytes = ByteBuffer.allocate(expected.length() * 3 + 16);
+            MessageFormatter.formatTo(bytes, pattern, args);
+            assertEquals(message, Arrays.toString(expected.getBytes(StandardCharsets.UTF_8)),
+                    Arrays.toString(Arrays.copyOf(bytes.array(), bytes.position())));
+
+            assertEquals(message, expected, fixedArity(pattern, args));
+        }
+    }
+
+    @Test
+    public void primitiveOverloadsMatchBoxed() {
+        Random random = new Random(7);
+        for (int round = 0; round < ROUNDS; round++) {
+            String pattern = randomPattern(random);
+            long l = random.nextLong();
+            double d = random.nextDouble();
+            float f = random.nextFloat();
+            char c = (char) ('a' + random.nextInt(26));
+
+            assertEquals(baseline(pattern, l), format(sbuf -> MessageFormatter.formatTo(sbuf, pattern, l)));
+            assertEquals(baseline(pattern, d), format(sbuf -> MessageFormatter.formatTo(sbuf, pattern, d)));
+            assertEquals(baseline(pattern, f), format(sbuf -> MessageFormatter.formatTo(sbuf, pattern, f)));
+            assertEquals(baseline(pattern, c), format(sbuf -> MessageFormatter.formatTo(sbuf, pattern, c)));
+            assertEquals(baseline(pattern, "s", l), format(sbuf -> MessageFormatter.formatTo(sbuf, pattern, "s", l)));
+            assertEquals(baseline(pattern, "s", c), format(sbuf -> MessageFormatter.formatTo(sbuf, pattern, "s", c)));
+            assertEquals(baseline(pattern, "s", "t", l), format(sbuf -> MessageFormatter.formatTo(sbuf, pattern, "s", "t", l)));
+            assertEquals(baseline(pattern, "s", "t", c), format(sbuf -> MessageFormatter.formatTo(sbuf, pattern, "s", "t", c)));
+        }
+    }
+
+    @Test
+    public void lazyFormatSnapshotsMutableArguments() {
+        StringBuilder arg = new StringBuilder("before");
+        int[] array = {1};
+        FormattingTuple tuple = MessageFormatter.lazyFormat("{} {}", arg, array);
+        arg.append("-after");
+        array[0] = 2;
+        assertEquals("before [1]", tuple.getMessage());
+    }
+
+    private static void assertSame(String expected, String pattern, Object... args) {
+        assertEquals(expected, baseline(pattern, args));
+        assertEquals(expected, MessageFormatter.arrayFormat(pattern, args).getMessage());
+        assertEquals(expected, MessageFormatter.compile(pattern).arrayFormat(args).getMessage());
+    }
+
+    private interface SbufWriter {
+        void write(StringBuilder sbuf);
+    }
+
+    private static String format(SbufWriter writer) {
+        StringBuilder sbuf = new StringBuilder();
+        writer.write(sbuf);
+        return sbuf.toString();
+    }
+
+    private static String fixedArity(String pattern, Object[] args) {
+        StringBuilder sbuf = new StringBuilder();
+        switch (args.length) {
+            case 1:
+                MessageFormatter.formatTo(sbuf, pattern, args[0]);
+                break;
+            case 2:
+                MessageFormatter.formatTo(sbuf, pattern, args[0], args[1]);
+                break;
+            case 3:
+                MessageFormatter.formatTo(sbuf, pattern, args[0], args[1], args[2]);
+                break;
+            case 4:
+                MessageFormatter.formatTo(sbuf, pattern, args[0], args[1], args[2], args[3]);
+                break;
+            default:
+                MessageFormatter.formatTo(sbuf, pattern, args);
+        }
+        return sbuf.toString();
+    }
+
+    private static String randomPattern(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int pieces = random.nextInt(12);
+        for (int i = 0; i < pieces; i++) {
+            sb.append(PIECES[random.nextInt(PIECES.length)]);
+        }
+        return sb.toString();
+    }
+
+    private static Object[] randomArgs(Random random) {
+        Object[] args = new Object[random.nextInt(6)];
+        for (int i = 0; i < args.length; i++) {
+            switch (random.nextInt(6)) {
+                case 0:
+                    args[i] = null;
+                    break;
+                case 1:
+                    args[i] = random.nextInt(100);
+                    break;
+                case 2:
+                    args[i] = "s{}\\" + i;
+                    break;
+                case 3:
+                    args[i] = new int[]{random.nextInt(10), random.nextInt(10)};
+                    break;
+                case 4:
+                    args[i] = new Object[]{"o", random.nextInt(10), new long[]{1L}};
+                    break;
+                default:
+                    args[i] = new IllegalStateException("e" + i);
+            }
+        }
+        return args;
+    }
+
+    /**
+     * 原来的实现：逐个扫描模板，最后一个参数是Throwable时不参与格式化
+     */
+    private static String baseline(String messagePattern, Object... argArray) {
+        if (argArray.length > 0 && argArray[argArray.length - 1] instanceof Throwable) {
+            argArray = Arrays.copyOf(argArray, argArray.length - 1);
+        }
+        int i = 0;
+        StringBuilder sbuf = new StringBuilder(messagePattern.length() + 50);
+        for (int L = 0; L < argArray.length; ++L) {
+            int j = messagePattern.indexOf("{}", i);
+            if (j == -1) {
+                if (i == 0) {
+                    return messagePattern;
+                }
+                sbuf.append(messagePattern, i, messagePattern.length());
+                return sbuf.toString();
+            }
+            boolean escaped = j > 0 && messagePattern.charAt(j - 1) == '\\';
+            boolean doubleEscaped = j >= 2 && messagePattern.charAt(j - 2) == '\\';
+            if (escaped) {
+                if (!doubleEscaped) {
+                    --L;
+                    sbuf.append(messagePattern, i, j - 1);
+                    sbuf.append('{');
+                    i = j + 1;
+                } else {
+                    sbuf.append(messagePattern, i, j - 1);
+                    appendParameter(sbuf, argArray[L]);
+                    i = j + 2;
+                }
+            } else {
+                sbuf.append(messagePattern, i, j);
+                appendParameter(sbuf, argArray[L]);
+                i = j + 2;
+            }
+        }
+        sbuf.append(messagePattern, i, messagePattern.length());
+        return sbuf.toString();
+    }
+
+    private static void appendParameter(StringBuilder sbuf, Object o) {
+        if (o instanceof int[]) {
+            sbuf.append(Arrays.toString((int[]) o));
+        } else if (o instanceof long[]) {
+            sbuf.append(Arrays.toString((long[]) o));
+        } else if (o instanceof Object[]) {
+            sbuf.append(Arrays.deepToString((Object[]) o));
+        } else {
+            sbuf.append(o);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.chenz.component.threadpool;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncThreadPoolLoggerTest {
+
+    private static final int THREADS = 8;
+
+    private static final int PER_THREAD = 20_000;
+
+    /**
+     * 缓冲区足够大时，多线程同时写入不能丢失记录（生产者读到过期的tail不是缓冲区满）
+     */
+    @Test
+    public void noDropWhenBufferHasRoom() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        AsyncThreadPoolLogger logger = new AsyncThreadPoolLogger(1 << 20, new PrintStream(bytes, false, "UTF-8"));
+        runProducers(logger);
+        logger.close();
+
+        assertEquals(0, logger.getDropQty());
+        String[] lines = bytes.toString("UTF-8").split(System.lineSeparator());
+        assertEquals(THREADS * PER_THREAD, lines.length);
+        assertTrue(lines[0], lines[0].matches("t\\d \\[tag\\d] execute finish\\. .*"));
+    }
+
+    /**
+     * 缓冲区小时会丢弃，写出的和丢弃的加起来等于全部
+     */
+    @Test
+    public void dropsAreCounted() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        AsyncThreadPoolLogger logger = new AsyncThreadPoolLogger(16, new PrintStream(bytes, false, "UTF-8"));
+        runProducers(logger);
+        logger.close();
+
+        String output = bytes.toString("UTF-8");
+        int lines = output.isEmpty() ? 0 : output.split(System.lineSeparator()).length;
+        assertEquals(THREADS * PER_THREAD, lines + logger.getDropQty());
+    }
+
+    private static void runProducers(AsyncThreadPoolLogger logger) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int id = t;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < PER_THREAD; i++) {
+                    logger.onTaskFinished("t" + id, "tag" + id, 1, 2, false, 3, 4, false, null, i, 0, 0);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+}
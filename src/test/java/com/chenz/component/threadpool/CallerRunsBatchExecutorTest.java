@@ -0,0 +1,54 @@
+package com.chenz.component.threadpool;
+
+import com.chenz.component.threadpool.CallerRunsBatchExecutor.BatchExecutorAddException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class CallerRunsBatchExecutorTest {
+
+    private CallerRunsBatchExecutor<String, String> executor;
+
+    @Before
+    public void setUp() {
+        executor = new CallerRunsBatchExecutor<>(items -> new ArrayList<>(items), 2);
+        executor.setPeriod(TimeUnit.MINUTES.toMillis(10));
+        executor.setMaxQty(1000);
+        executor.setCoalescing(Function.identity(), (a, b) -> a);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    /**
+     * 队列满、ABORT时被拒绝的数据不能留在合并窗口，否则之后同key的add都合并到它上面，future永远不结束
+     */
+    @Test
+    public void abortedItemLeavesCoalesceWindow() throws Exception {
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        futures.add(executor.add("a"));
+        futures.add(executor.add("b"));
+        for (int i = 0; i < 2; i++) {
+            try {
+                executor.add("c");
+                fail("queue is full, add should be aborted");
+            } catch (BatchExecutorAddException expected) {
+                //第二次也应该被拒绝，而不是合并到第一次被拒绝的数据上
+            }
+        }
+        executor.shutdown();
+        assertEquals("a", futures.get(0).get(5, TimeUnit.SECONDS));
+        assertEquals("b", futures.get(1).get(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,96 @@
+package com.chenz.component.threadpool;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MpscRingBatchQueueTest {
+
+    private static final int PRODUCERS = 4;
+
+    private static final int PER_PRODUCER = 100_000;
+
+    @Test
+    public void fullAndEmpty() {
+        MpscRingBatchQueue<Integer> queue = new MpscRingBatchQueue<>(3);
+        assertEquals(4, queue.capacity());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(4));
+        assertEquals(4, queue.size());
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(3, queue.drainTo(drained, 3));
+        assertEquals(Integer.valueOf(3), queue.poll());
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    /**
+     * 多个生产者同时写入，消费者交替poll和drainTo，每个元素恰好取出一次，同一个生产者的元素保持顺序
+     */
+    @Test
+    public void concurrentProducersSingleConsumer() throws Exception {
+        MpscRingBatchQueue<long[]> queue = new MpscRingBatchQueue<>(1024);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            final int producer = p;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < PER_PRODUCER; i++) {
+                    long[] item = {producer, i};
+                    while (!queue.offer(item)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            thread.start();
+            producers.add(thread);
+        }
+        start.countDown();
+
+        long[] next = new long[PRODUCERS];
+        List<long[]> batch = new ArrayList<>();
+        int received = 0;
+        while (received < PRODUCERS * PER_PRODUCER) {
+            batch.clear();
+            if ((received & 1) == 0) {
+                queue.drainTo(batch, 64);
+            } else {
+                long[] item = queue.poll();
+                if (item != null) {
+                    batch.add(item);
+                }
+            }
+            if (batch.isEmpty()) {
+                Thread.yield();
+                continue;
+            }
+            for (long[] item : batch) {
+                int producer = (int) item[0];
+                assertEquals("producer " + producer, next[producer], item[1]);
+                next[producer]++;
+                received++;
+            }
+        }
+        for (Thread thread : producers) {
+            thread.join();
+        }
+        assertTrue(queue.isEmpty());
+        for (int p = 0; p < PRODUCERS; p++) {
+            assertEquals(PER_PRODUCER, next[p]);
+        }
+    }
+}